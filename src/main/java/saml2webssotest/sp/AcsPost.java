@@ -0,0 +1,99 @@
+package saml2webssotest.sp;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+
+import com.gargoylesoftware.htmlunit.HttpMethod;
+import com.gargoylesoftware.htmlunit.WebRequest;
+import com.gargoylesoftware.htmlunit.util.NameValuePair;
+import com.google.gson.Gson;
+import com.google.gson.JsonSyntaxException;
+
+import saml2webssotest.common.StandardNames;
+
+/**
+ * The SAML Response that the mock IdP would send to the ACS of the target SP with the HTTP POST binding.
+ *
+ * When a browser asks for a direct ACS POST (see {@link SPTestRunner#HEADER_DIRECT_POST}), the mock IdP replies
+ * with this as JSON, instead of with an HTML page that submits the Response with JavaScript. The test runner then
+ * POSTs the Response to the ACS itself, in the same browser, so the cookies of the login attempt are still sent
+ * along.
+ *
+ * @author RiaasM
+ *
+ */
+public class AcsPost {
+	/**
+	 * The content type with which the mock IdP replies
+	 */
+	public static final String CONTENT_TYPE = "application/json";
+	/**
+	 * The location of the ACS
+	 */
+	private String location;
+	/**
+	 * The base64-encoded SAML Response
+	 */
+	private String samlResponse;
+	/**
+	 * The RelayState that should be returned to the target SP, or null if there is none
+	 */
+	private String relayState;
+
+	public AcsPost(String location, String samlResponse, String relayState) {
+		this.location = location;
+		this.samlResponse = samlResponse;
+		this.relayState = relayState;
+	}
+
+	/**
+	 * Read the reply of the mock IdP
+	 *
+	 * @param json is the body of the reply
+	 * @return the Response that should be POSTed to the ACS, or null if the reply could not be read
+	 */
+	public static AcsPost fromJson(String json) {
+		try {
+			AcsPost post = new Gson().fromJson(json, AcsPost.class);
+			return (post == null || post.location == null || post.samlResponse == null) ? null : post;
+		} catch (JsonSyntaxException e) {
+			return null;
+		}
+	}
+
+	public String toJson() {
+		return new Gson().toJson(this);
+	}
+
+	/**
+	 * Create the request that POSTs the Response (and the RelayState, if any) to the ACS
+	 *
+	 * @return the request
+	 * @throws MalformedURLException if the location of the ACS is not a valid URL
+	 */
+	public WebRequest toWebRequest() throws MalformedURLException {
+		WebRequest request = new WebRequest(new URL(location), HttpMethod.POST);
+		ArrayList<NameValuePair> parameters = new ArrayList<NameValuePair>();
+		if (relayState != null && !relayState.isEmpty()) {
+			parameters.add(new NameValuePair(StandardNames.URLPARAM_RELAYSTATE, relayState));
+		}
+		parameters.add(new NameValuePair(StandardNames.URLPARAM_SAMLRESPONSE_POST, samlResponse));
+		request.setRequestParameters(parameters);
+		return request;
+	}
+
+	/*
+	 * Simple getters
+	 */
+
+	public String getLocation() {
+		return location;
+	}
+	public String getSamlResponse() {
+		return samlResponse;
+	}
+	public String getRelayState() {
+		return relayState;
+	}
+}
@@ -0,0 +1,150 @@
+package saml2webssotest.sp;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.gargoylesoftware.htmlunit.WebClient;
+
+/**
+ * Contains the browsers that can be reused by the test runner.
+ *
+ * Each browser that is checked out is leased to the exchange of the test case that uses it (see
+ * {@link LoginExchange}) and sends along the token of that exchange. The browsers are returned to the pool when
+ * the exchange is released, or explicitly with {@link #checkin(WebClient)}. A browser is reset before it is
+ * checked out again, so it no longer contains any cookies, windows or history from its previous use.
+ *
+ * The pool only keeps a limited number of idle browsers. Browsers that are returned while the pool is full, or
+ * that no longer fit when the pool shrinks, are closed. Browsers are never refused, so a test case can check out
+ * more browsers than the pool can hold.
+ *
+ * @author RiaasM
+ *
+ */
+public class BrowserPool {
+	/**
+	 * The idle browsers, with the most recently returned browser first
+	 */
+	private final ArrayDeque<WebClient> idle = new ArrayDeque<WebClient>();
+	/**
+	 * The browsers that are checked out, with the exchange they are leased to
+	 */
+	private final IdentityHashMap<WebClient, LoginExchange> leases = new IdentityHashMap<WebClient, LoginExchange>();
+	/**
+	 * The maximum number of idle browsers
+	 */
+	private int capacity;
+
+	/**
+	 * Create a browser pool
+	 *
+	 * @param capacity is the maximum number of idle browsers that are kept for reuse
+	 */
+	public BrowserPool(int capacity) {
+		this.capacity = capacity;
+	}
+
+	/**
+	 * Check out a browser for the given exchange
+	 *
+	 * @param exchange is the exchange that the browser is leased to
+	 * @return a browser without any cookies, windows or history, which identifies the exchange to the mock IdP
+	 */
+	public WebClient checkout(LoginExchange exchange) {
+		WebClient browser;
+		synchronized (this) {
+			browser = idle.pollFirst();
+		}
+		if (browser == null) {
+			browser = new WebClient();
+		}
+		else {
+			reset(browser);
+		}
+		// configure the browser that will be used during testing
+		browser.getOptions().setRedirectEnabled(true);
+		browser.getOptions().setUseInsecureSSL(false);
+		// let the mock IdP know which exchange the login attempts in this browser belong to
+		browser.addRequestHeader(SPTestRunner.HEADER_EXCHANGE, exchange.getToken());
+		synchronized (this) {
+			leases.put(browser, exchange);
+		}
+		return browser;
+	}
+
+	/**
+	 * Return the browser to the pool, or close it if the pool is full
+	 *
+	 * Browsers that are not checked out (e.g. because they were already returned) are ignored.
+	 *
+	 * @param browser is the browser that is no longer used
+	 */
+	public void checkin(WebClient browser) {
+		synchronized (this) {
+			if (leases.remove(browser) == null) {
+				return;
+			}
+			if (idle.size() < capacity) {
+				idle.addFirst(browser);
+				return;
+			}
+		}
+		browser.closeAllWindows();
+	}
+
+	/**
+	 * Return all browsers that are leased to the given exchange
+	 *
+	 * @param exchange is the exchange that is no longer used
+	 */
+	public void checkinAll(LoginExchange exchange) {
+		ArrayList<WebClient> leased = new ArrayList<WebClient>();
+		synchronized (this) {
+			for (Map.Entry<WebClient, LoginExchange> lease : leases.entrySet()) {
+				if (lease.getValue() == exchange) {
+					leased.add(lease.getKey());
+				}
+			}
+		}
+		for (WebClient browser : leased) {
+			checkin(browser);
+		}
+	}
+
+	/**
+	 * Change the maximum number of idle browsers, closing the idle browsers that no longer fit
+	 *
+	 * @param capacity is the new maximum number of idle browsers
+	 */
+	public void setCapacity(int capacity) {
+		List<WebClient> surplus = new ArrayList<WebClient>();
+		synchronized (this) {
+			this.capacity = Math.max(0, capacity);
+			while (idle.size() > this.capacity) {
+				surplus.add(idle.pollLast());
+			}
+		}
+		for (WebClient browser : surplus) {
+			browser.closeAllWindows();
+		}
+	}
+
+	/**
+	 * Close all idle browsers. Browsers that are still checked out are closed when they are returned.
+	 */
+	public void close() {
+		setCapacity(0);
+	}
+
+	/**
+	 * Remove everything that a previous login attempt left in the browser
+	 */
+	private void reset(WebClient browser) {
+		browser.getCookieManager().clearCookies();
+		browser.getCache().clear();
+		// the history belongs to the windows, so it is removed along with them
+		browser.closeAllWindows();
+	}
+}
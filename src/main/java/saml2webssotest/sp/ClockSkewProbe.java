@@ -0,0 +1,181 @@
+package saml2webssotest.sp;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.joda.time.DateTime;
+import org.opensaml.saml2.core.Assertion;
+import org.opensaml.saml2.core.Response;
+import org.opensaml.saml2.core.SubjectConfirmation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import saml2webssotest.common.SAMLUtil;
+import saml2webssotest.sp.testsuites.SPTestSuite;
+
+/**
+ * Discovers the clock skew that the target SP actually allows.
+ *
+ * The target SP is sent Responses whose NotOnOrAfter time has already passed by a certain offset. The SP
+ * should accept these Responses as long as the offset is within its allowed clock skew and reject them otherwise.
+ * The boundary between accepted and rejected offsets is found with a search in which several offsets are
+ * probed at the same time, each round narrowing the interval that contains the boundary.
+ *
+ * @author RiaasM
+ *
+ */
+public class ClockSkewProbe {
+	/**
+	 * The largest clock skew (in milliseconds) that will be searched for
+	 */
+	public static final long MAX_CLOCKSKEW = 10 * 60 * 1000;
+	/**
+	 * The precision (in milliseconds) with which the clock skew is discovered
+	 */
+	public static final long RESOLUTION = 1000;
+	/**
+	 * The minimum number of offsets that are probed at the same time
+	 */
+	public static final int MIN_PROBES = 3;
+	/**
+	 * Logger for this class
+	 */
+	private final Logger logger = LoggerFactory.getLogger(ClockSkewProbe.class);
+	/**
+	 * The test runner that makes the login attempts
+	 */
+	private final SPTestRunner runner;
+	/**
+	 * The test suite that creates the Responses for the mock IdP
+	 */
+	private final SPTestSuite suite;
+	/**
+	 * The number of offsets that are probed at the same time
+	 */
+	private final int probes;
+
+	/**
+	 * Create a probe for the target SP
+	 *
+	 * @param runner is the test runner that makes the login attempts
+	 * @param suite is the test suite that creates the Responses for the mock IdP
+	 * @param probes is the number of offsets that should be probed at the same time
+	 */
+	public ClockSkewProbe(SPTestRunner runner, SPTestSuite suite, int probes) {
+		this.runner = runner;
+		this.suite = suite;
+		this.probes = Math.max(probes, MIN_PROBES);
+	}
+
+	/**
+	 * Discover the clock skew that the target SP allows.
+	 *
+	 * The mock IdP should be running while the clock skew is discovered.
+	 *
+	 * @return the largest offset (in milliseconds) that the target SP accepted, or a negative value if the
+	 * clock skew could not be discovered
+	 */
+	public long discover() {
+		ExecutorService workers = Executors.newFixedThreadPool(probes);
+		try {
+			// make sure the target SP accepts a valid Response, otherwise the probes can not be interpreted
+			if (probe(workers, new long[] { -MAX_CLOCKSKEW })[0] != Boolean.TRUE) {
+				logger.error("The target SP did not accept a valid Response, so its clock skew can not be discovered");
+				return -1;
+			}
+			// the boundary lies above the largest accepted offset and at or below the smallest rejected offset
+			long accepted = 0;
+			long rejected = MAX_CLOCKSKEW + RESOLUTION;
+			boolean rejectionSeen = false;
+			while (rejected - accepted > RESOLUTION) {
+				long[] offsets = new long[probes];
+				for (int i = 0; i < probes; i++) {
+					offsets[i] = accepted + (rejected - accepted) * (i + 1) / (probes + 1);
+				}
+				logger.debug("Probing the clock skew between " + accepted + " and " + rejected + " ms");
+				Boolean[] results = probe(workers, offsets);
+				// the interval is narrowed to the offsets around the first rejection
+				long newRejected = rejected;
+				for (int i = 0; i < probes; i++) {
+					if (results[i] == null) {
+						logger.warn("The login attempt for offset " + offsets[i] + " ms could not be completed, it is treated as rejected");
+					}
+					if (results[i] != Boolean.TRUE) {
+						newRejected = offsets[i];
+						rejectionSeen = true;
+						break;
+					}
+					accepted = offsets[i];
+				}
+				rejected = newRejected;
+			}
+			if (!rejectionSeen) {
+				logger.warn("The target SP allows a clock skew of at least " + accepted + " ms");
+			}
+			logger.info("The target SP allows a clock skew of " + accepted + " ms (with a precision of " + RESOLUTION + " ms)");
+			return accepted;
+		} catch (InterruptedException e) {
+			logger.error("Interrupted while discovering the clock skew", e);
+			Thread.currentThread().interrupt();
+			return -1;
+		} finally {
+			workers.shutdown();
+		}
+	}
+
+	/**
+	 * Attempt to log in with Responses whose NotOnOrAfter time has passed by the given offsets, at the same time
+	 *
+	 * @param workers are the threads on which the login attempts are made
+	 * @param offsets are the offsets (in milliseconds) by which the NotOnOrAfter time has passed
+	 * @return for each offset, whether the target SP accepted the Response or null if the login attempt could not be completed
+	 * @throws InterruptedException if interrupted while waiting for the login attempts
+	 */
+	private Boolean[] probe(ExecutorService workers, long[] offsets) throws InterruptedException {
+		List<Future<Boolean>> pending = new ArrayList<Future<Boolean>>();
+		for (final long offset : offsets) {
+			pending.add(workers.submit(new Callable<Boolean>() {
+				@Override
+				public Boolean call() {
+					try {
+						return attemptLogin(offset);
+					} finally {
+						runner.releaseExchange();
+					}
+				}
+			}));
+		}
+		Boolean[] results = new Boolean[offsets.length];
+		for (int i = 0; i < offsets.length; i++) {
+			try {
+				results[i] = pending.get(i).get();
+			} catch (ExecutionException e) {
+				logger.error("The login attempt for offset " + offsets[i] + " ms failed", e.getCause());
+			}
+		}
+		return results;
+	}
+
+	private Boolean attemptLogin(final long offset) {
+		runner.getExchange().setMockIdPAvailable(true);
+		runner.setResponseFactory(new ResponseFactory() {
+			@Override
+			public String createResponse(String requestID, String acsURL, String acsBinding) {
+				Response response = suite.copyMinimalWebSSOResponse(requestID, acsURL, 0);
+				Assertion assertion = response.getAssertions().get(0);
+				// the NotOnOrAfter time is set when the Response is sent, so it has passed by exactly the offset
+				for (SubjectConfirmation subConf : assertion.getSubject().getSubjectConfirmations()) {
+					subConf.getSubjectConfirmationData().setNotOnOrAfter(DateTime.now().minus(offset));
+				}
+				SAMLUtil.sign(assertion, suite.getX509Credentials(null));
+				return SAMLUtil.toXML(response);
+			}
+		});
+		return runner.attemptLogin(runner.getNewBrowser(), true);
+	}
+}
@@ -0,0 +1,160 @@
+package saml2webssotest.sp;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.KeyPair;
+import java.security.Security;
+import java.security.cert.CertificateException;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.security.interfaces.RSAPrivateKey;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.openssl.PEMReader;
+import org.opensaml.xml.security.x509.BasicX509Credential;
+import org.opensaml.xml.security.x509.X509Credential;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Contains the X.509 credentials that the mock IdP uses to sign its messages.
+ *
+ * The certificate and private key for each location are parsed only once and then kept. A credential
+ * that was read from a file is read again only when that file has been modified. The stored credentials
+ * should not be modified, since they are shared by every test case that uses the same location.
+ *
+ * @author RiaasM
+ *
+ */
+public class CredentialStore {
+	/**
+	 * Logger for this class
+	 */
+	private final Logger logger = LoggerFactory.getLogger(CredentialStore.class);
+	/**
+	 * The certificate (in PEM format) that is used when no location is provided
+	 */
+	private final String defaultCertificate;
+	/**
+	 * The RSA private key (in PEM format) that is used when no location is provided
+	 */
+	private final String defaultPrivateKey;
+	/**
+	 * Contains the parsed credentials, by location (the default credentials are stored with an empty location)
+	 */
+	private final ConcurrentHashMap<String, StoredCredential> credentials = new ConcurrentHashMap<String, StoredCredential>();
+
+	static {
+		// the private keys are read with BouncyCastle, which only needs to be registered once
+		if (Security.getProvider(BouncyCastleProvider.PROVIDER_NAME) == null) {
+			Security.addProvider(new BouncyCastleProvider());
+		}
+	}
+
+	/**
+	 * A parsed credential, along with the modification time of the file it was read from
+	 */
+	private static class StoredCredential {
+		private final X509Credential credential;
+		private final long lastModified;
+
+		public StoredCredential(X509Credential credential, long lastModified) {
+			this.credential = credential;
+			this.lastModified = lastModified;
+		}
+	}
+
+	/**
+	 * Create a credential store
+	 *
+	 * @param defaultCertificate is the certificate (in PEM format) that is used when no location is provided
+	 * @param defaultPrivateKey is the RSA private key (in PEM format) that is used when no location is provided
+	 */
+	public CredentialStore(String defaultCertificate, String defaultPrivateKey) {
+		this.defaultCertificate = defaultCertificate;
+		this.defaultPrivateKey = defaultPrivateKey;
+	}
+
+	/**
+	 * Retrieve the credentials from the given location
+	 *
+	 * @param location is the location of the file that contains both the certificate and the private key in PEM
+	 * format (e.g. "keys/mykey.pem"). Can be null or empty, in which case the default credentials are used
+	 * @return the credentials, or null if they could not be read
+	 */
+	public X509Credential getCredential(String location) {
+		String key = location == null ? "" : location;
+		long lastModified = key.isEmpty() ? 0 : getLastModified(key);
+		StoredCredential stored = credentials.get(key);
+		if (stored != null && stored.lastModified == lastModified) {
+			return stored.credential;
+		}
+		synchronized (this) {
+			// another thread may have read the credentials in the meantime
+			stored = credentials.get(key);
+			if (stored != null && stored.lastModified == lastModified) {
+				return stored.credential;
+			}
+			X509Credential credential = key.isEmpty() ? parse(defaultCertificate, defaultPrivateKey) : read(key);
+			if (credential == null) {
+				return null;
+			}
+			if (stored != null) {
+				logger.info("The credentials in " + key + " were modified and have been read again");
+			}
+			credentials.put(key, new StoredCredential(credential, lastModified));
+			return credential;
+		}
+	}
+
+	private long getLastModified(String location) {
+		try {
+			return Files.getLastModifiedTime(Paths.get(location)).toMillis();
+		} catch (IOException e) {
+			return -1;
+		}
+	}
+
+	private X509Credential read(String location) {
+		Path path = Paths.get(location);
+		try {
+			String pem = new String(Files.readAllBytes(path), Charset.defaultCharset());
+			return parse(pem, pem);
+		} catch (IOException e) {
+			logger.error("IOException occurred while accessing the user-provided file for the mock IdP's credentials", e);
+			return null;
+		}
+	}
+
+	private X509Credential parse(String cert, String key) {
+		// retrieve the certificate
+		X509Certificate idpCert = null;
+		try {
+			idpCert = (X509Certificate) CertificateFactory.getInstance("X.509").generateCertificate(new ByteArrayInputStream(cert.getBytes()));
+		} catch (CertificateException e) {
+			logger.error("The X.509 Certificate for the mock IdP could not be parsed", e);
+			return null;
+		}
+		// retrieve the private key
+		RSAPrivateKey privateKey = null;
+		try {
+			PEMReader pr = new PEMReader(new StringReader(key));
+			KeyPair kp = (KeyPair) pr.readObject();
+			pr.close();
+			privateKey = (RSAPrivateKey) kp.getPrivate();
+		} catch (IOException e) {
+			logger.error("The private key for the mock IdP could not be parsed", e);
+		}
+		BasicX509Credential credentials = new BasicX509Credential();
+		credentials.setEntityCertificate(idpCert);
+		credentials.setPublicKey(idpCert.getPublicKey());
+		credentials.setPrivateKey(privateKey);
+		return credentials;
+	}
+}
@@ -0,0 +1,21 @@
+package saml2webssotest.sp;
+
+import org.w3c.dom.Element;
+
+/**
+ * A change to the XML of a SAML Response, as it is made by a {@link MutationPipeline}.
+ * 
+ * @author RiaasM
+ *
+ */
+public interface DOMMutation {
+	/**
+	 * Make the change to the Response. 
+	 * 
+	 * This may be called for several Responses at the same time, so the change itself should not be modified.
+	 * 
+	 * @param response is the Response element
+	 * @return the number of elements that were changed
+	 */
+	int apply(Element response);
+}
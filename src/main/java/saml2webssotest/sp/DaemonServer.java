@@ -0,0 +1,198 @@
+package saml2webssotest.sp;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import saml2webssotest.common.TestResult;
+import saml2webssotest.sp.testsuites.SPTestSuite;
+
+/**
+ * A local HTTP endpoint that accepts test runs while the test runner keeps running.
+ *
+ * A test run is requested with <code>/run?testsuite=&lt;name&gt;</code>, optionally with the parameters
+ * <code>testcase</code>, <code>config</code> (the path to the target SP configuration) and
+ * <code>recursive=true</code>. The target SP is fuzzed instead with the parameter <code>fuzz</code> (the
+ * number of fuzzed Responses), optionally with <code>fuzzSeed</code>. The results are streamed back as one JSON
+ * object per line, as soon as each test suite has finished. The results that the mock IdP stored during the
+ * test run follow in the same way, after all test suites have finished. The endpoint only listens on the
+ * loopback interface and handles one test run at a time.
+ *
+ * @author RiaasM
+ *
+ */
+public class DaemonServer {
+	/**
+	 * The path on which test runs are accepted
+	 */
+	public static final String PATH_RUN = "/run";
+	/**
+	 * Logger for this class
+	 */
+	private final Logger logger = LoggerFactory.getLogger(DaemonServer.class);
+	/**
+	 * The test runner that runs the requested test suites
+	 */
+	private final SPTestRunner runner;
+	/**
+	 * The executor on which the test cases are run, which is kept between test runs
+	 */
+	private final TestCaseExecutor executor;
+	private final Gson gson = new GsonBuilder().create();
+	private HttpServer server;
+
+	/**
+	 * Contains the results of a single test suite, as it is sent to the client
+	 */
+	private static class SuiteResults {
+		@SuppressWarnings("unused")
+		private final String testsuite;
+		@SuppressWarnings("unused")
+		private final List<TestResult> results;
+
+		public SuiteResults(String testsuite, List<TestResult> results) {
+			this.testsuite = testsuite;
+			this.results = results;
+		}
+	}
+
+	public DaemonServer(SPTestRunner runner, TestCaseExecutor executor) {
+		this.runner = runner;
+		this.executor = executor;
+	}
+
+	/**
+	 * Start accepting test runs
+	 *
+	 * @param port is the local port on which test runs are accepted
+	 * @throws IOException if the port could not be opened
+	 */
+	public void start(int port) throws IOException {
+		server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+		server.createContext(PATH_RUN, new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				try {
+					handleRun(exchange);
+				} finally {
+					exchange.close();
+				}
+			}
+		});
+		// without an executor, the requests are handled one at a time on the server's own thread
+		server.setExecutor(null);
+		server.start();
+		logger.info("Accepting test runs on http://localhost:" + port + PATH_RUN);
+	}
+
+	/**
+	 * Stop accepting test runs
+	 */
+	public void stop() {
+		if (server != null) {
+			server.stop(0);
+		}
+	}
+
+	private void handleRun(HttpExchange exchange) throws IOException {
+		Map<String, String> params = parseQuery(exchange.getRequestURI().getRawQuery());
+		String suiteName = params.get("testsuite");
+		if (suiteName == null || suiteName.isEmpty()) {
+			sendError(exchange, 400, "The testsuite parameter is required");
+			return;
+		}
+		SPTestSuite suite;
+		try {
+			suite = runner.newTestSuite(suiteName);
+		} catch (ReflectiveOperationException | ClassCastException e) {
+			logger.error("Test suite could not be loaded", e);
+			sendError(exchange, 404, "The test suite " + suiteName + " could not be found");
+			return;
+		}
+		int fuzzVariants = 0;
+		Long fuzzSeed = null;
+		try {
+			if (params.containsKey("fuzz")) {
+				fuzzVariants = Integer.parseInt(params.get("fuzz"));
+			}
+			if (params.containsKey("fuzzSeed")) {
+				fuzzSeed = Long.valueOf(params.get("fuzzSeed"));
+			}
+		} catch (NumberFormatException e) {
+			sendError(exchange, 400, "The fuzz and fuzzSeed parameters should be numbers");
+			return;
+		}
+		// never run against the configuration of a previous test run when the requested one could not be loaded
+		if (params.containsKey("config") && !runner.tryLoadConfig(params.get("config"))) {
+			sendError(exchange, 400, "The target SP configuration " + params.get("config") + " could not be loaded");
+			return;
+		}
+		if (runner.getSPConfig() == null) {
+			sendError(exchange, 400, "No target SP configuration has been loaded, provide it with the config parameter");
+			return;
+		}
+
+		exchange.getResponseHeaders().set("Content-Type", "application/x-ndjson; charset=UTF-8");
+		exchange.sendResponseHeaders(200, 0);
+		final Writer out = new OutputStreamWriter(exchange.getResponseBody(), "UTF-8");
+		logger.info("Starting requested test run of testsuite " + suiteName);
+		TestSuiteScheduler.Listener listener = new TestSuiteScheduler.Listener() {
+			@Override
+			public void suiteFinished(String finishedSuite, List<TestResult> results) {
+				String line = gson.toJson(new SuiteResults(finishedSuite, results));
+				synchronized (out) {
+					try {
+						out.write(line + "\n");
+						out.flush();
+					} catch (IOException e) {
+						logger.warn("Could not send the results of testsuite " + finishedSuite + " to the client", e);
+					}
+				}
+			}
+		};
+		if (fuzzVariants > 0) {
+			runner.runDaemonFuzzer(suite, fuzzVariants, fuzzSeed, listener);
+		}
+		else {
+			runner.runDaemonRequest(suite, params.get("testcase"), "true".equalsIgnoreCase(params.get("recursive")), executor, listener);
+		}
+		out.close();
+	}
+
+	private void sendError(HttpExchange exchange, int status, String message) throws IOException {
+		byte[] body = message.getBytes("UTF-8");
+		exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=UTF-8");
+		exchange.sendResponseHeaders(status, body.length);
+		exchange.getResponseBody().write(body);
+	}
+
+	private Map<String, String> parseQuery(String query) throws UnsupportedEncodingException {
+		HashMap<String, String> params = new HashMap<String, String>();
+		if (query == null) {
+			return params;
+		}
+		for (String pair : query.split("&")) {
+			int split = pair.indexOf('=');
+			if (split > 0) {
+				params.put(URLDecoder.decode(pair.substring(0, split), "UTF-8"), URLDecoder.decode(pair.substring(split + 1), "UTF-8"));
+			}
+		}
+		return params;
+	}
+}
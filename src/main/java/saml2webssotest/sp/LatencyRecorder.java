@@ -0,0 +1,229 @@
+package saml2webssotest.sp;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+
+import org.HdrHistogram.EncodableHistogram;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.HistogramLogReader;
+import org.HdrHistogram.HistogramLogWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import saml2webssotest.common.TestResult;
+
+/**
+ * Records the latencies of each phase of the login attempts in a load run.
+ *
+ * The latencies of a login attempt should be measured from the time at which it was scheduled to start, not from the
+ * time at which it actually started. Otherwise the time that a login attempt waits for the previous ones to finish
+ * is not recorded, which hides exactly the latencies that occur when the target SP can not keep up (coordinated
+ * omission). The first phase of a login attempt and the complete login attempt are therefore measured from the
+ * intended start time, the other phases from the end of the phase before them.
+ *
+ * The latencies can be written to a histogram log (see {@link HistogramLogWriter}), with an interval histogram for
+ * each phase, tagged with the name of the phase. The logs of several load runs, e.g. on different machines, can be
+ * merged to get the latencies of the combined load.
+ *
+ * @author RiaasM
+ *
+ */
+public class LatencyRecorder {
+	/**
+	 * The phases of a login attempt
+	 */
+	public enum Phase {
+		START_PAGE("StartPage", "Start page"),
+		MOCK_IDP("MockIdP", "Mock IdP handling"),
+		ACS("ACS", "ACS POST"),
+		POST_RESPONSE("PostResponse", "Post-response interactions"),
+		LOGIN("Login", "Complete login");
+
+		/**
+		 * The tag of the phase in the histogram logs
+		 */
+		private final String tag;
+		private final String description;
+
+		private Phase(String tag, String description) {
+			this.tag = tag;
+			this.description = description;
+		}
+
+		public String getTag() {
+			return tag;
+		}
+
+		public String getDescription() {
+			return description;
+		}
+
+		/**
+		 * Retrieve the phase with the given tag
+		 *
+		 * @param tag is the tag of the phase in the histogram logs
+		 * @return the phase, or null if no phase has the given tag
+		 */
+		public static Phase fromTag(String tag) {
+			for (Phase phase : values()) {
+				if (phase.tag.equals(tag)) {
+					return phase;
+				}
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * Logger for this class
+	 */
+	private static final Logger logger = LoggerFactory.getLogger(LatencyRecorder.class);
+	private final EnumMap<Phase, PhaseStatistics> statistics = new EnumMap<Phase, PhaseStatistics>(Phase.class);
+	/**
+	 * The time (in milliseconds since the epoch) at which the recording started and stopped
+	 */
+	private volatile long startTime;
+	private volatile long endTime;
+
+	public LatencyRecorder() {
+		for (Phase phase : Phase.values()) {
+			statistics.put(phase, new PhaseStatistics(phase.getDescription()));
+		}
+	}
+
+	/**
+	 * Mark the start of the recording, which is used as the start time of the histogram log
+	 */
+	public void start() {
+		startTime = System.currentTimeMillis();
+	}
+
+	/**
+	 * Mark the end of the recording, which is used as the end time of the histogram log
+	 */
+	public void stop() {
+		endTime = System.currentTimeMillis();
+	}
+
+	/**
+	 * Record the latency of a successful pass through the given phase
+	 *
+	 * @param phase is the phase
+	 * @param from is the time (in nanoseconds, see System.nanoTime()) at which the phase started, or was intended to start
+	 * @param to is the time (in nanoseconds) at which the phase ended
+	 */
+	public void record(Phase phase, long from, long to) {
+		statistics.get(phase).record(to - from);
+	}
+
+	/**
+	 * Record a login attempt that failed in the given phase
+	 *
+	 * @param phase is the phase
+	 */
+	public void recordError(Phase phase) {
+		statistics.get(phase).recordError();
+	}
+
+	/**
+	 * @param phase is the phase
+	 * @return the statistics of the given phase
+	 */
+	public PhaseStatistics getStatistics(Phase phase) {
+		return statistics.get(phase);
+	}
+
+	/**
+	 * Create a result for each phase that any login attempt reached, which fails if any of the login attempts
+	 * failed in that phase
+	 *
+	 * @return the results
+	 */
+	public List<TestResult> getResults() {
+		ArrayList<TestResult> results = new ArrayList<TestResult>();
+		for (Phase phase : Phase.values()) {
+			PhaseStatistics phaseStatistics = statistics.get(phase);
+			if (phaseStatistics.getCount() == 0 && phaseStatistics.getErrors() == 0) {
+				continue;
+			}
+			logger.info(phase.getDescription() + ": " + phaseStatistics.getSummary());
+			results.add(new TestResult("Load" + phase.getTag())
+					.withDescription("The latency and error rate of the " + phase.getDescription() + " phase")
+					.isMandatory(false)
+					.withResultStatus(phaseStatistics.getErrors() == 0)
+					.withResultMessage(phaseStatistics.getSummary()));
+		}
+		return results;
+	}
+
+	/**
+	 * Write the recorded latencies to a histogram log, as a single interval for each phase
+	 *
+	 * @param file is the name of the histogram log
+	 * @throws FileNotFoundException if the histogram log could not be created
+	 */
+	public void writeLog(String file) throws FileNotFoundException {
+		HistogramLogWriter writer = new HistogramLogWriter(new File(file));
+		try {
+			writer.outputComment("Login latencies (in microseconds) per phase, measured from the intended start of each login attempt");
+			writer.outputLogFormatVersion();
+			writer.outputStartTime(startTime);
+			writer.setBaseTime(startTime);
+			writer.outputBaseTime(startTime);
+			writer.outputLegend();
+			for (Phase phase : Phase.values()) {
+				Histogram latencies = statistics.get(phase).getLatencies();
+				if (latencies.getTotalCount() == 0) {
+					continue;
+				}
+				latencies.setTag(phase.getTag());
+				latencies.setStartTimeStamp(startTime);
+				latencies.setEndTimeStamp(endTime);
+				writer.outputIntervalHistogram(latencies);
+			}
+		} finally {
+			writer.close();
+		}
+		logger.info("The login latencies were written to " + file);
+	}
+
+	/**
+	 * Merge the latencies in the given histogram logs
+	 *
+	 * Only the latencies are merged, so the result does not contain any errors.
+	 *
+	 * @param files are the names of the histogram logs
+	 * @return a recorder with the merged latencies of each phase
+	 * @throws FileNotFoundException if one of the histogram logs could not be found
+	 */
+	public static LatencyRecorder merge(List<String> files) throws FileNotFoundException {
+		LatencyRecorder merged = new LatencyRecorder();
+		merged.startTime = Long.MAX_VALUE;
+		merged.endTime = 0;
+		for (String file : files) {
+			HistogramLogReader reader = new HistogramLogReader(new File(file));
+			try {
+				EncodableHistogram interval;
+				while ((interval = reader.nextIntervalHistogram()) != null) {
+					Phase phase = Phase.fromTag(interval.getTag());
+					if (phase == null || !(interval instanceof Histogram)) {
+						logger.warn("Skipped an interval with unknown tag " + interval.getTag() + " in histogram log " + file);
+						continue;
+					}
+					merged.statistics.get(phase).add((Histogram) interval);
+					merged.startTime = Math.min(merged.startTime, interval.getStartTimeStamp());
+					merged.endTime = Math.max(merged.endTime, interval.getEndTimeStamp());
+				}
+			} finally {
+				reader.close();
+			}
+		}
+		if (merged.startTime > merged.endTime) {
+			merged.startTime = merged.endTime;
+		}
+		return merged;
+	}
+}
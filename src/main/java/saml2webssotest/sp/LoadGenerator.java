@@ -0,0 +1,228 @@
+package saml2webssotest.sp;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.gargoylesoftware.htmlunit.WebClient;
+
+import saml2webssotest.common.TestResult;
+import saml2webssotest.sp.LatencyRecorder.Phase;
+import saml2webssotest.sp.testsuites.SPTestSuite;
+
+/**
+ * Generates login load on the target SP at a fixed arrival rate.
+ *
+ * New login attempts are started at the requested rate, regardless of how long the previous login attempts take,
+ * and are made on a fixed number of worker threads, each of which reuses its own browser. Each login attempt uses
+ * a valid, signed minimal Response (see {@link SPTestSuite.MinimalResponseFactory}) and is timed per phase (see
+ * {@link LoginTimer}):
+ * <ul>
+ * <li>Start page: from the intended start until the AuthnRequest reaches the mock IdP (SP-initiated only)</li>
+ * <li>Mock IdP handling: from the first request to the mock IdP until it responds</li>
+ * <li>ACS POST: from sending the Response to the ACS until the ACS responds</li>
+ * <li>Post-response interactions: from the response of the ACS until the landing page has been loaded and checked</li>
+ * </ul>
+ * The latencies are recorded by a {@link LatencyRecorder}, against the intended start time of each login attempt.
+ *
+ * @author RiaasM
+ *
+ */
+public class LoadGenerator {
+	/**
+	 * The name under which the results of a load run are stored
+	 */
+	public static final String LOAD_RESULTS = "Load";
+	/**
+	 * The time (in milliseconds) to wait for the login attempts that are still running when the load run ends
+	 */
+	private static final long DRAIN_TIMEOUT = 60000;
+	/**
+	 * Logger for this class
+	 */
+	private final Logger logger = LoggerFactory.getLogger(LoadGenerator.class);
+	private final SPTestRunner runner;
+	private final SPTestSuite suite;
+	/**
+	 * The number of login attempts that are started per second
+	 */
+	private final double rate;
+	/**
+	 * The time (in milliseconds) during which login attempts are started
+	 */
+	private final long duration;
+	private final boolean spInitiated;
+	/**
+	 * The number of worker threads on which the login attempts are made
+	 */
+	private final int workers;
+
+	private final LatencyRecorder recorder = new LatencyRecorder();
+	private final AtomicInteger started = new AtomicInteger();
+	private final AtomicInteger successful = new AtomicInteger();
+
+	/**
+	 * Create a load generator
+	 *
+	 * @param runner is the test runner that makes the login attempts
+	 * @param suite is the test suite that creates the Responses and provides the mock IdP
+	 * @param rate is the number of login attempts that are started per second
+	 * @param duration is the time (in milliseconds) during which login attempts are started
+	 * @param spInitiated determines whether the login attempts are SP-initiated or IdP-initiated
+	 * @param workers is the maximum number of login attempts that are made at the same time
+	 */
+	public LoadGenerator(SPTestRunner runner, SPTestSuite suite, double rate, long duration, boolean spInitiated, int workers) {
+		this.runner = runner;
+		this.suite = suite;
+		this.rate = rate;
+		this.duration = duration;
+		this.spInitiated = spInitiated;
+		this.workers = workers;
+	}
+
+	/**
+	 * Generate the load and wait for the login attempts to finish.
+	 *
+	 * The mock IdP should already be running.
+	 *
+	 * @return a result with the throughput of the login attempts and a result for each phase, which fails if
+	 * any of the login attempts failed in that phase
+	 */
+	public List<TestResult> run() {
+		final ExecutorService logins = Executors.newFixedThreadPool(workers);
+		ScheduledExecutorService arrivals = Executors.newSingleThreadScheduledExecutor();
+		final ConcurrentLinkedQueue<LoginTimer> timers = new ConcurrentLinkedQueue<LoginTimer>();
+		// each worker thread reuses its own browser, which is only cleared between login attempts
+		final ThreadLocal<LoginTimer> workerTimer = new ThreadLocal<LoginTimer>() {
+			@Override
+			protected LoginTimer initialValue() {
+				LoginTimer timer = new LoginTimer(runner.getNewBrowser(), suite.getMockServerURL());
+				timers.add(timer);
+				return timer;
+			}
+		};
+		final ResponseFactory responseFactory = suite.new MinimalResponseFactory();
+
+		logger.info("Starting " + rate + " " + (spInitiated ? "SP" : "IdP") + "-initiated login(s) per second for " + duration + " ms on " + workers + " worker thread(s)");
+		final long period = Math.max(1, (long) (1000000000L / rate));
+		final long start = System.nanoTime();
+		recorder.start();
+		arrivals.scheduleAtFixedRate(new Runnable() {
+			@Override
+			public void run() {
+				// the intended start follows the schedule, even if the scheduler or the workers fall behind
+				final long intended = start + started.getAndIncrement() * period;
+				logins.execute(new Runnable() {
+					@Override
+					public void run() {
+						login(workerTimer.get(), responseFactory, intended);
+					}
+				});
+			}
+		}, 0, period, TimeUnit.NANOSECONDS);
+
+		try {
+			Thread.sleep(duration);
+		} catch (InterruptedException e) {
+			logger.warn("The load run was interrupted", e);
+			Thread.currentThread().interrupt();
+		}
+		arrivals.shutdownNow();
+		logins.shutdown();
+		try {
+			if (!logins.awaitTermination(DRAIN_TIMEOUT, TimeUnit.MILLISECONDS)) {
+				logger.warn("Not all login attempts finished within " + DRAIN_TIMEOUT + " ms after the load run ended");
+				logins.shutdownNow();
+			}
+		} catch (InterruptedException e) {
+			logins.shutdownNow();
+			Thread.currentThread().interrupt();
+		}
+		long elapsed = Math.max(1, (System.nanoTime() - start) / 1000000);
+		recorder.stop();
+		for (LoginTimer timer : timers) {
+			timer.uninstall();
+			runner.releaseBrowser(timer.getBrowser());
+		}
+		return report(elapsed);
+	}
+
+	/**
+	 * @return the recorder with the latencies of the login attempts
+	 */
+	public LatencyRecorder getRecorder() {
+		return recorder;
+	}
+
+	/**
+	 * Make a single login attempt and record the latency of each phase it passed through
+	 *
+	 * @param intended is the time (in nanoseconds) at which the login attempt was scheduled to start
+	 */
+	private void login(LoginTimer timer, ResponseFactory responseFactory, long intended) {
+		WebClient browser = timer.getBrowser();
+		browser.getCookieManager().clearCookies();
+		runner.setResponseFactory(responseFactory);
+		timer.reset();
+		LoginOutcome outcome;
+		try {
+			outcome = runner.attemptLoginOutcome(browser, spInitiated);
+		} catch (RuntimeException e) {
+			logger.debug("The login attempt failed", e);
+			outcome = LoginOutcome.INCOMPLETE;
+		}
+		long finished = System.nanoTime();
+
+		if (timer.getIdPRequested() == 0) {
+			recorder.recordError(spInitiated ? Phase.START_PAGE : Phase.MOCK_IDP);
+			recorder.recordError(Phase.LOGIN);
+			return;
+		}
+		// the first phase includes the time that the login attempt waited for a worker thread
+		if (spInitiated) {
+			recorder.record(Phase.START_PAGE, intended, timer.getIdPRequested());
+		}
+		if (timer.getIdPResponded() == 0) {
+			recorder.recordError(Phase.MOCK_IDP);
+			recorder.recordError(Phase.LOGIN);
+			return;
+		}
+		recorder.record(Phase.MOCK_IDP, spInitiated ? timer.getIdPRequested() : intended, timer.getIdPResponded());
+		if (timer.getACSResponded() == 0 || timer.getACSStatusCode() >= 400) {
+			recorder.recordError(Phase.ACS);
+			recorder.recordError(Phase.LOGIN);
+			return;
+		}
+		recorder.record(Phase.ACS, timer.getACSRequested(), timer.getACSResponded());
+		if (!Boolean.TRUE.equals(outcome.getLogin())) {
+			recorder.recordError(Phase.POST_RESPONSE);
+			recorder.recordError(Phase.LOGIN);
+			return;
+		}
+		recorder.record(Phase.POST_RESPONSE, timer.getACSResponded(), finished);
+		recorder.record(Phase.LOGIN, intended, finished);
+		successful.incrementAndGet();
+	}
+
+	private List<TestResult> report(long elapsed) {
+		ArrayList<TestResult> results = new ArrayList<TestResult>();
+		String throughput = String.format("%d of %d login attempt(s) succeeded in %d ms (%.2f per second, target %.2f per second)",
+				successful.get(), started.get(), elapsed, successful.get() * 1000.0 / elapsed, rate);
+		logger.info(throughput);
+		results.add(new TestResult("LoadThroughput")
+				.withDescription("The number of successful logins per second")
+				.isMandatory(false)
+				.withResultStatus(successful.get() == started.get())
+				.withResultMessage(throughput));
+		results.addAll(recorder.getResults());
+		return results;
+	}
+}
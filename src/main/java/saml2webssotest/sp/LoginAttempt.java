@@ -0,0 +1,103 @@
+package saml2webssotest.sp;
+
+/**
+ * Contains the messages of a single login attempt on the target SP.
+ *
+ * The test case registers the SAML Response that should be sent for the attempt (or a factory that
+ * creates it), after which the mock IdP adds the SAML Request it received. 
+ *
+ * @author RiaasM
+ *
+ */
+public class LoginAttempt {
+	/**
+	 * The token of the exchange that registered this login attempt
+	 */
+	private final String token;
+	/**
+	 * Contains the SAML Response that should be sent by the mock IdP
+	 */
+	private final String samlResponse;
+	/**
+	 * Creates the SAML Response that should be sent by the mock IdP, used instead of a fixed SAML Response
+	 */
+	private final ResponseFactory responseFactory;
+	/**
+	 * Contains the SAML Request that was retrieved by the mock IdP
+	 */
+	private volatile String samlRequest;
+	/**
+	 * Contains the SAML binding that was recognized by the mock IdP
+	 */
+	private volatile String samlRequestBinding;
+	/**
+	 * The time (in milliseconds) at which this login attempt was last used
+	 */
+	private volatile long lastUsed = System.currentTimeMillis();
+
+	public LoginAttempt(String token, String samlResponse) {
+		this.token = token;
+		this.samlResponse = samlResponse;
+		this.responseFactory = null;
+	}
+
+	public LoginAttempt(String token, ResponseFactory responseFactory) {
+		this.token = token;
+		this.samlResponse = null;
+		this.responseFactory = responseFactory;
+	}
+
+	/**
+	 * Create a new login attempt with the same token and SAML Response (or factory) as this one, 
+	 * for a different AuthnRequest
+	 * 
+	 * @return the new login attempt, without a SAML Request
+	 */
+	public LoginAttempt copy() {
+		return responseFactory == null ? new LoginAttempt(token, samlResponse) : new LoginAttempt(token, responseFactory);
+	}
+
+	/*
+	 * Simple getters and setters
+	 */
+
+	public String getToken() {
+		return token;
+	}
+	public String getSamlResponse() {
+		return samlResponse;
+	}
+	public ResponseFactory getResponseFactory() {
+		return responseFactory;
+	}
+	public String getSamlRequest() {
+		return samlRequest;
+	}
+	public void setSamlRequest(String samlRequest) {
+		this.samlRequest = samlRequest;
+	}
+	public String getSamlRequestBinding() {
+		return samlRequestBinding;
+	}
+	public void setSamlRequestBinding(String samlRequestBinding) {
+		this.samlRequestBinding = samlRequestBinding;
+	}
+
+	/**
+	 * Mark this login attempt as used, which postpones its expiry
+	 */
+	public void touch() {
+		lastUsed = System.currentTimeMillis();
+	}
+
+	/**
+	 * Check if this login attempt has not been used for longer than the given time
+	 * 
+	 * @param ttl is the time (in milliseconds) after which an unused login attempt expires
+	 * @param now is the current time (in milliseconds)
+	 * @return true if the login attempt has expired
+	 */
+	public boolean isExpired(long ttl, long now) {
+		return now - lastUsed > ttl;
+	}
+}
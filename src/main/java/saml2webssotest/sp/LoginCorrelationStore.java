@@ -0,0 +1,234 @@
+package saml2webssotest.sp;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Keeps track of the login attempts that are in progress, so the mock IdP can find the attempt
+ * that a received request belongs to.
+ *
+ * A test case registers the SAML Response (or a factory for it) for its login attempts under the token of its exchange.
+ * When the mock IdP receives an AuthnRequest with an ID it has not seen before, it creates a new login attempt for 
+ * that request from the registered one, so each AuthnRequest gets its own attempt, even when several login attempts 
+ * of the same exchange are in progress at the same time. Any later messages for the same request find the same attempt. 
+ * IdP-initiated login attempts have no AuthnRequest, so these use the registered attempt of the token that the browser 
+ * sent, or the attempt that was correlated with their RelayState.
+ *
+ * Login attempts that have not been used for a while expire, so aborted attempts are not kept
+ * around for the rest of the run. Expired attempts are ignored when they are looked up and are removed 
+ * in a sweep once enough new attempts have been added.
+ *
+ * @author RiaasM
+ *
+ */
+public class LoginCorrelationStore {
+	/**
+	 * The time (in milliseconds) after which unused login attempts expire by default
+	 */
+	public static final long DEFAULT_TTL = 30 * 60 * 1000;
+	/**
+	 * The minimum number of login attempts that are added between two sweeps for expired attempts
+	 */
+	private static final int MIN_SWEEP_INTERVAL = 1024;
+	/**
+	 * The time (in milliseconds) after which unused login attempts expire
+	 */
+	private final long ttl;
+	/**
+	 * Contains the login attempts by the ID of the AuthnRequest they answer
+	 */
+	private final ConcurrentHashMap<String, LoginAttempt> byRequestID = new ConcurrentHashMap<String, LoginAttempt>();
+	/**
+	 * Contains the login attempts by the RelayState that was provided with them
+	 */
+	private final ConcurrentHashMap<String, LoginAttempt> byRelayState = new ConcurrentHashMap<String, LoginAttempt>();
+	/**
+	 * Contains the most recently registered login attempt for each exchange token, from which the login attempts 
+	 * for its AuthnRequests are created
+	 */
+	private final ConcurrentHashMap<String, LoginAttempt> registered = new ConcurrentHashMap<String, LoginAttempt>();
+	/**
+	 * Contains the most recently used login attempt for each exchange token
+	 */
+	private final ConcurrentHashMap<String, LoginAttempt> latest = new ConcurrentHashMap<String, LoginAttempt>();
+	/**
+	 * The number of login attempts that were added since the last sweep
+	 */
+	private final AtomicInteger added = new AtomicInteger();
+	/**
+	 * The number of login attempts that should be added before the next sweep
+	 */
+	private volatile int sweepInterval = MIN_SWEEP_INTERVAL;
+
+	public LoginCorrelationStore() {
+		this(DEFAULT_TTL);
+	}
+
+	public LoginCorrelationStore(long ttl) {
+		this.ttl = ttl;
+	}
+
+	/**
+	 * Register a new login attempt for the given exchange token
+	 *
+	 * @param token is the token of the exchange that makes the login attempt
+	 * @param samlResponse is the SAML Response the mock IdP should send for this attempt, or null if the mock IdP 
+	 * should only store the AuthnRequest
+	 * @return the registered login attempt
+	 */
+	public LoginAttempt register(String token, String samlResponse) {
+		return register(new LoginAttempt(token, samlResponse));
+	}
+
+	/**
+	 * Register a new login attempt for the given exchange token, whose SAML Response is only created when
+	 * the mock IdP receives the AuthnRequest for it
+	 *
+	 * @param token is the token of the exchange that makes the login attempt
+	 * @param responseFactory creates the SAML Response the mock IdP should send for this attempt
+	 * @return the registered login attempt
+	 */
+	public LoginAttempt register(String token, ResponseFactory responseFactory) {
+		return register(new LoginAttempt(token, responseFactory));
+	}
+
+	private LoginAttempt register(LoginAttempt attempt) {
+		registered.put(attempt.getToken(), attempt);
+		latest.put(attempt.getToken(), attempt);
+		added();
+		return attempt;
+	}
+
+	/**
+	 * Retrieve the most recently used login attempt for the given exchange token, which is the attempt for the 
+	 * latest AuthnRequest that the mock IdP received for it or, if none was received yet, the registered attempt
+	 *
+	 * @param token is the token of the exchange
+	 * @return the login attempt, or null if no attempt was registered for the token
+	 */
+	public LoginAttempt getLatest(String token) {
+		return lookup(latest, token);
+	}
+
+	/**
+	 * Find the login attempt that a request received by the mock IdP belongs to.
+	 *
+	 * The attempt is looked up by the ID of the AuthnRequest first. If the AuthnRequest was not seen before, a new 
+	 * attempt is created for it from the attempt that was registered for the token of the exchange. Requests without 
+	 * an AuthnRequest use the registered attempt directly. If the token is unknown, the attempt is looked up by 
+	 * RelayState.
+	 *
+	 * @param requestID is the ID of the received AuthnRequest, or null if IdP-initiated
+	 * @param relayState is the RelayState that was received, or null if none was provided
+	 * @param token is the token of the exchange that was sent by the browser
+	 * @return the login attempt that the request belongs to, or null if no login attempt was registered for it 
+	 * (or it has expired)
+	 */
+	public LoginAttempt find(String requestID, String relayState, String token) {
+		LoginAttempt attempt = null;
+		if (requestID != null) {
+			attempt = lookup(byRequestID, requestID);
+		}
+		if (attempt == null) {
+			LoginAttempt registeredAttempt = lookup(registered, token);
+			if (registeredAttempt != null) {
+				registeredAttempt.touch();
+				attempt = requestID == null ? registeredAttempt : createForRequest(registeredAttempt, requestID);
+			}
+		}
+		if (attempt == null && relayState != null && !relayState.isEmpty()) {
+			attempt = lookup(byRelayState, relayState);
+		}
+		if (attempt == null) {
+			return null;
+		}
+		attempt.touch();
+		latest.put(attempt.getToken(), attempt);
+		return attempt;
+	}
+
+	/**
+	 * Create the login attempt for the AuthnRequest with the given ID, unless another request for the same ID 
+	 * created it first
+	 */
+	private LoginAttempt createForRequest(LoginAttempt registeredAttempt, String requestID) {
+		LoginAttempt attempt = registeredAttempt.copy();
+		LoginAttempt existing = byRequestID.putIfAbsent(requestID, attempt);
+		if (existing != null) {
+			return existing;
+		}
+		added();
+		return attempt;
+	}
+
+	/**
+	 * Correlate the login attempt with the AuthnRequest ID and RelayState that were received for it
+	 *
+	 * @param attempt is the login attempt
+	 * @param requestID is the ID of the received AuthnRequest, or null if IdP-initiated
+	 * @param relayState is the RelayState that was received, or null if none was provided
+	 */
+	public void correlate(LoginAttempt attempt, String requestID, String relayState) {
+		if (requestID != null && byRequestID.put(requestID, attempt) == null) {
+			added();
+		}
+		if (relayState != null && !relayState.isEmpty() && byRelayState.put(relayState, attempt) == null) {
+			added();
+		}
+	}
+
+	/**
+	 * Retrieve the login attempt with the given key, removing it if it has expired
+	 */
+	private LoginAttempt lookup(ConcurrentHashMap<String, LoginAttempt> attempts, String key) {
+		if (key == null) {
+			return null;
+		}
+		LoginAttempt attempt = attempts.get(key);
+		if (attempt != null && attempt.isExpired(ttl, System.currentTimeMillis())) {
+			attempts.remove(key, attempt);
+			return null;
+		}
+		return attempt;
+	}
+
+	/**
+	 * Count a login attempt that was added and sweep for expired attempts once enough attempts have been added.
+	 * 
+	 * The interval between sweeps grows with the number of attempts that are kept, so the cost of the sweeps 
+	 * is spread over the attempts that were added.
+	 */
+	private void added() {
+		if (added.incrementAndGet() >= sweepInterval) {
+			sweep();
+		}
+	}
+
+	/**
+	 * Remove all login attempts that have expired
+	 */
+	private synchronized void sweep() {
+		if (added.get() < sweepInterval) {
+			// another thread has just swept
+			return;
+		}
+		long now = System.currentTimeMillis();
+		expire(byRequestID, now);
+		expire(byRelayState, now);
+		expire(registered, now);
+		expire(latest, now);
+		added.set(0);
+		sweepInterval = Math.max(MIN_SWEEP_INTERVAL, byRequestID.size() + byRelayState.size() + registered.size() + latest.size());
+	}
+
+	private void expire(Map<String, LoginAttempt> attempts, long now) {
+		Iterator<LoginAttempt> iter = attempts.values().iterator();
+		while (iter.hasNext()) {
+			if (iter.next().isExpired(ttl, now)) {
+				iter.remove();
+			}
+		}
+	}
+}
@@ -0,0 +1,61 @@
+package saml2webssotest.sp;
+
+/**
+ * Contains the settings that a test case uses for its exchange with the mock IdP.
+ *
+ * Each worker thread of the test runner uses its own exchange, so the settings of one test case 
+ * never affect the login attempts of another test case that runs at the same time. The token of 
+ * the exchange is sent along by the browser, which allows the mock IdP to find the exchange and 
+ * the login attempts (see {@link LoginCorrelationStore}) that belong to it.
+ *
+ * @author RiaasM
+ *
+ */
+public class LoginExchange {
+	/**
+	 * The token that identifies this exchange
+	 */
+	private final String token;
+	/**
+	 * Determines if the mock IdP is allowed to update signatures on SAML Response elements
+	 */
+	private volatile boolean sigUpdateResponseAllowed = true;
+	/**
+	 * Determines if the mock IdP is allowed to update signatures on SAML Assertion elements
+	 */
+	private volatile boolean sigUpdateAssertionAllowed = true;
+	/**
+	 * Determines if the mock IdP should answer login attempts for this exchange
+	 */
+	private volatile boolean mockIdPAvailable = true;
+
+	public LoginExchange(String token) {
+		this.token = token;
+	}
+
+	/*
+	 * Simple getters and setters
+	 */
+
+	public String getToken() {
+		return token;
+	}
+	public boolean isSigUpdateResponseAllowed() {
+		return sigUpdateResponseAllowed;
+	}
+	public void setSigUpdateResponseAllowed(boolean sigUpdateResponseAllowed) {
+		this.sigUpdateResponseAllowed = sigUpdateResponseAllowed;
+	}
+	public boolean isSigUpdateAssertionAllowed() {
+		return sigUpdateAssertionAllowed;
+	}
+	public void setSigUpdateAssertionAllowed(boolean sigUpdateAssertionAllowed) {
+		this.sigUpdateAssertionAllowed = sigUpdateAssertionAllowed;
+	}
+	public boolean isMockIdPAvailable() {
+		return mockIdPAvailable;
+	}
+	public void setMockIdPAvailable(boolean mockIdPAvailable) {
+		this.mockIdPAvailable = mockIdPAvailable;
+	}
+}
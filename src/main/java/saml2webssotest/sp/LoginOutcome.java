@@ -0,0 +1,78 @@
+package saml2webssotest.sp;
+
+import com.gargoylesoftware.htmlunit.html.HtmlPage;
+
+/**
+ * The outcome of a login attempt, along with the page on which it ended.
+ *
+ * The page is summarized by its HTTP status code, its location (without query) and its title, so outcomes of
+ * login attempts that were rejected in the same way can be grouped together (see {@link #getRejectionClass()}).
+ *
+ * @author RiaasM
+ *
+ */
+public class LoginOutcome {
+	/**
+	 * The outcome of a login attempt that could not be completed
+	 */
+	public static final LoginOutcome INCOMPLETE = new LoginOutcome(null, 0, "", "");
+
+	/**
+	 * True if the login attempt was successful, false if it was unsuccessful and null if it could not be completed
+	 */
+	private final Boolean login;
+	private final int statusCode;
+	private final String location;
+	private final String title;
+
+	private LoginOutcome(Boolean login, int statusCode, String location, String title) {
+		this.login = login;
+		this.statusCode = statusCode;
+		this.location = location;
+		this.title = title;
+	}
+
+	/**
+	 * Create the outcome of a login attempt that ended on the given page
+	 *
+	 * @param login determines if the login attempt was successful
+	 * @param page is the page on which the login attempt ended
+	 * @return the outcome of the login attempt
+	 */
+	public static LoginOutcome of(boolean login, HtmlPage page) {
+		String location = page.getUrl().getProtocol() + "://" + page.getUrl().getAuthority() + page.getUrl().getPath();
+		return new LoginOutcome(login, page.getWebResponse().getStatusCode(), location, page.getTitleText().trim());
+	}
+
+	/**
+	 * Retrieve the class of this outcome, which is the same for login attempts that ended in the same way.
+	 *
+	 * Numbers in the title of the page are left out, since these are often IDs or times that differ for each
+	 * login attempt.
+	 *
+	 * @return the class of this outcome
+	 */
+	public String getRejectionClass() {
+		if (login == null) {
+			return "incomplete";
+		}
+		return (login ? "accepted" : "rejected") + " with HTTP " + statusCode + " at " + location + " \"" + title.replaceAll("[0-9]+", "#") + "\"";
+	}
+
+	/*
+	 * Simple getters
+	 */
+
+	public Boolean getLogin() {
+		return login;
+	}
+	public int getStatusCode() {
+		return statusCode;
+	}
+	public String getLocation() {
+		return location;
+	}
+	public String getTitle() {
+		return title;
+	}
+}
@@ -0,0 +1,141 @@
+package saml2webssotest.sp;
+
+import java.io.IOException;
+import java.net.URL;
+
+import com.gargoylesoftware.htmlunit.HttpMethod;
+import com.gargoylesoftware.htmlunit.WebClient;
+import com.gargoylesoftware.htmlunit.WebConnection;
+import com.gargoylesoftware.htmlunit.WebRequest;
+import com.gargoylesoftware.htmlunit.WebResponse;
+import com.gargoylesoftware.htmlunit.util.WebConnectionWrapper;
+
+/**
+ * Records when a browser reaches each phase of a login attempt.
+ *
+ * The timer is installed on the browser and watches the requests it sends. The first request to the mock IdP
+ * marks the end of loading the start page (and thereby issuing the AuthnRequest) and its response marks the end of
+ * the mock IdP handling it. The first POST request after that (the SAML Response being sent to the
+ * AssertionConsumerService) marks the start of the ACS processing and its response marks the start of the
+ * interactions after the Response, like loading the landing page. The timer should be reset before each login attempt in the browser.
+ *
+ * @author RiaasM
+ *
+ */
+public class LoginTimer extends WebConnectionWrapper {
+	/**
+	 * The browser on which the timer is installed
+	 */
+	private final WebClient browser;
+	/**
+	 * The connection that the browser used before the timer was installed
+	 */
+	private final WebConnection connection;
+	/**
+	 * The URL of the mock IdP
+	 */
+	private final URL mockServerURL;
+	private volatile long started;
+	private volatile long idpRequested;
+	private volatile long idpResponded;
+	private volatile long acsRequested;
+	private volatile long acsResponded;
+	private volatile int acsStatusCode;
+
+	/**
+	 * Install a timer on the given browser
+	 *
+	 * @param browser is the browser that makes the login attempts
+	 * @param mockServerURL is the URL of the mock IdP
+	 */
+	public LoginTimer(WebClient browser, URL mockServerURL) {
+		this(browser, browser.getWebConnection(), mockServerURL);
+	}
+
+	private LoginTimer(WebClient browser, WebConnection connection, URL mockServerURL) {
+		super(connection);
+		this.browser = browser;
+		this.connection = connection;
+		this.mockServerURL = mockServerURL;
+		browser.setWebConnection(this);
+	}
+
+	/**
+	 * Remove the timer from the browser, so the browser can be reused without it
+	 */
+	public void uninstall() {
+		browser.setWebConnection(connection);
+	}
+
+	/**
+	 * Start timing a new login attempt
+	 */
+	public void reset() {
+		idpRequested = 0;
+		idpResponded = 0;
+		acsRequested = 0;
+		acsResponded = 0;
+		acsStatusCode = 0;
+		started = System.nanoTime();
+	}
+
+	@Override
+	public WebResponse getResponse(WebRequest request) throws IOException {
+		long sent = System.nanoTime();
+		boolean idp = false;
+		boolean acs = false;
+		if (isMockServer(request.getUrl())) {
+			if (idpRequested == 0) {
+				idpRequested = sent;
+				idp = true;
+			}
+		}
+		else if (idpRequested != 0 && acsRequested == 0 && request.getHttpMethod() == HttpMethod.POST) {
+			acsRequested = sent;
+			acs = true;
+		}
+		WebResponse response = super.getResponse(request);
+		if (idp) {
+			idpResponded = System.nanoTime();
+		}
+		if (acs) {
+			acsStatusCode = response.getStatusCode();
+			acsResponded = System.nanoTime();
+		}
+		return response;
+	}
+
+	private boolean isMockServer(URL url) {
+		return url.getAuthority().equalsIgnoreCase(mockServerURL.getAuthority()) && url.getPath().startsWith(mockServerURL.getPath());
+	}
+
+	public WebClient getBrowser() {
+		return browser;
+	}
+
+	/*
+	 * The times (in nanoseconds, see System.nanoTime()) at which each phase was reached, or 0 if it was not reached
+	 */
+
+	public long getStarted() {
+		return started;
+	}
+	public long getIdPRequested() {
+		return idpRequested;
+	}
+	public long getIdPResponded() {
+		return idpResponded;
+	}
+	public long getACSRequested() {
+		return acsRequested;
+	}
+	public long getACSResponded() {
+		return acsResponded;
+	}
+	/**
+	 * @return the HTTP status code with which the ACS responded, or 0 if it was not reached
+	 */
+	public int getACSStatusCode() {
+		return acsStatusCode;
+	}
+}
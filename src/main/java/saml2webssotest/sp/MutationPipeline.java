@@ -0,0 +1,201 @@
+package saml2webssotest.sp;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+
+import org.opensaml.Configuration;
+import org.opensaml.saml2.core.Assertion;
+import org.opensaml.saml2.core.Response;
+import org.opensaml.xml.io.MarshallingException;
+import org.opensaml.xml.io.UnmarshallingException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+import saml2webssotest.common.SAMLUtil;
+import saml2webssotest.sp.testsuites.SPTestSuite;
+
+/**
+ * A compiled login scenario (see {@link ResponseScenario}).
+ *
+ * The pipeline creates the SAML Response for each login attempt of the scenario, by copying the minimal
+ * Web SSO Response of the test suite (see {@link SPTestSuite#copyMinimalWebSSOResponse(String, String, long)}),
+ * making the changes that should be made before signing, signing it and making the changes that should be made
+ * after signing. The pipeline itself is not changed after it has been compiled, so it can be used by several
+ * login attempts at the same time.
+ *
+ * @author RiaasM
+ *
+ */
+public class MutationPipeline {
+	/**
+	 * Logger for this class
+	 */
+	private final Logger logger = LoggerFactory.getLogger(MutationPipeline.class);
+
+	/**
+	 * The elements of the Response that are signed
+	 */
+	public enum Signing {
+		NONE(false, false),
+		ASSERTION(true, false),
+		RESPONSE(false, true),
+		BOTH(true, true);
+
+		private final boolean assertion;
+		private final boolean response;
+
+		private Signing(boolean assertion, boolean response) {
+			this.assertion = assertion;
+			this.response = response;
+		}
+	}
+
+	private final String name;
+	private final String description;
+	private final boolean mandatory;
+	private final boolean spInitiated;
+	private final boolean expectLogin;
+	private final Signing signing;
+	/**
+	 * The changes that are made before the Response is signed
+	 */
+	private final List<DOMMutation> beforeSigning;
+	/**
+	 * The changes that are made after the Response is signed
+	 */
+	private final List<DOMMutation> afterSigning;
+
+	public MutationPipeline(String name, String description, boolean mandatory, boolean spInitiated, boolean expectLogin,
+			Signing signing, List<? extends DOMMutation> beforeSigning, List<? extends DOMMutation> afterSigning) {
+		this.name = name;
+		this.description = description;
+		this.mandatory = mandatory;
+		this.spInitiated = spInitiated;
+		this.expectLogin = expectLogin;
+		this.signing = signing;
+		this.beforeSigning = Collections.unmodifiableList(new ArrayList<DOMMutation>(beforeSigning));
+		this.afterSigning = Collections.unmodifiableList(new ArrayList<DOMMutation>(afterSigning));
+	}
+
+	/**
+	 * Create a factory that creates the SAML Responses for this scenario with the given test suite
+	 *
+	 * @param suite is the test suite that provides the minimal Web SSO Response and the mock IdP's credentials
+	 * @return the factory for the SAML Responses
+	 */
+	public ResponseFactory newResponseFactory(final SPTestSuite suite) {
+		return new ResponseFactory() {
+			@Override
+			public String createResponse(String requestID, String acsURL, String acsBinding) {
+				return MutationPipeline.this.createResponse(suite, requestID, acsURL);
+			}
+		};
+	}
+
+	/**
+	 * Create the SAML Response for a login attempt of this scenario
+	 *
+	 * @param suite is the test suite that provides the minimal Web SSO Response and the mock IdP's credentials
+	 * @param requestID is the ID of the AuthnRequest, or null if IdP-initiated
+	 * @param acsURL is the URL of the AssertionConsumerService to which the Response is sent
+	 * @return the SAML Response
+	 * @throws IllegalStateException if the Response could not be converted to or from XML
+	 */
+	public String createResponse(SPTestSuite suite, String requestID, String acsURL) {
+		Response response = suite.copyMinimalWebSSOResponse(requestID, acsURL, 0);
+		if (signing.response) {
+			// signed Response messages require the Destination attribute
+			response.setDestination(acsURL);
+		}
+		if (!beforeSigning.isEmpty()) {
+			response = mutate(response);
+		}
+		if (signing.assertion) {
+			for (Assertion assertion : response.getAssertions()) {
+				SAMLUtil.sign(assertion, suite.getX509Credentials(null));
+			}
+		}
+		if (signing.response) {
+			SAMLUtil.sign(response, suite.getX509Credentials(null));
+		}
+		String xml = SAMLUtil.toXML(response);
+		if (!afterSigning.isEmpty()) {
+			xml = mutate(xml);
+		}
+		return xml;
+	}
+
+	/**
+	 * Make the changes that should be made before signing
+	 */
+	private Response mutate(Response response) {
+		try {
+			Element element = Configuration.getMarshallerFactory().getMarshaller(response).marshall(response);
+			apply(beforeSigning, element);
+			return (Response) Configuration.getUnmarshallerFactory().getUnmarshaller(element).unmarshall(element);
+		} catch (MarshallingException | UnmarshallingException | IllegalArgumentException e) {
+			// a changed value may not be readable by OpenSAML (e.g. a time that is not valid)
+			throw new IllegalStateException("The Response for scenario " + name + " could not be changed", e);
+		}
+	}
+
+	/**
+	 * Make the changes that should be made after signing, without touching the rest of the signed XML
+	 */
+	private String mutate(String xml) {
+		try {
+			DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+			factory.setNamespaceAware(true);
+			Document document = factory.newDocumentBuilder().parse(new InputSource(new StringReader(xml)));
+			apply(afterSigning, document.getDocumentElement());
+			StringWriter out = new StringWriter();
+			TransformerFactory.newInstance().newTransformer().transform(new DOMSource(document), new StreamResult(out));
+			return out.toString();
+		} catch (ParserConfigurationException | SAXException | TransformerException | IOException e) {
+			throw new IllegalStateException("The signed Response for scenario " + name + " could not be changed", e);
+		}
+	}
+
+	private void apply(List<DOMMutation> mutations, Element response) {
+		for (DOMMutation mutation : mutations) {
+			if (mutation.apply(response) == 0) {
+				logger.warn("The mutation \"" + mutation + "\" of scenario " + name + " did not match anything in the Response");
+			}
+		}
+	}
+
+	/*
+	 * Simple getters
+	 */
+
+	public String getName() {
+		return name;
+	}
+	public String getDescription() {
+		return description;
+	}
+	public boolean isMandatory() {
+		return mandatory;
+	}
+	public boolean isSpInitiated() {
+		return spInitiated;
+	}
+	public boolean isExpectLogin() {
+		return expectLogin;
+	}
+}
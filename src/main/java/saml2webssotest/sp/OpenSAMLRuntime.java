@@ -0,0 +1,238 @@
+package saml2webssotest.sp;
+
+import javax.xml.namespace.QName;
+
+import org.opensaml.Configuration;
+import org.opensaml.DefaultBootstrap;
+import org.opensaml.common.SAMLObject;
+import org.opensaml.common.SAMLObjectBuilder;
+import org.opensaml.saml2.core.Assertion;
+import org.opensaml.saml2.core.Attribute;
+import org.opensaml.saml2.core.AttributeStatement;
+import org.opensaml.saml2.core.AttributeValue;
+import org.opensaml.saml2.core.Audience;
+import org.opensaml.saml2.core.AudienceRestriction;
+import org.opensaml.saml2.core.AuthnContext;
+import org.opensaml.saml2.core.AuthnContextClassRef;
+import org.opensaml.saml2.core.AuthnStatement;
+import org.opensaml.saml2.core.Conditions;
+import org.opensaml.saml2.core.Issuer;
+import org.opensaml.saml2.core.NameID;
+import org.opensaml.saml2.core.Response;
+import org.opensaml.saml2.core.Status;
+import org.opensaml.saml2.core.StatusCode;
+import org.opensaml.saml2.core.Subject;
+import org.opensaml.saml2.core.SubjectConfirmation;
+import org.opensaml.saml2.core.SubjectConfirmationData;
+import org.opensaml.saml2.metadata.EntityDescriptor;
+import org.opensaml.saml2.metadata.IDPSSODescriptor;
+import org.opensaml.saml2.metadata.KeyDescriptor;
+import org.opensaml.saml2.metadata.SingleSignOnService;
+import org.opensaml.xml.ConfigurationException;
+import org.opensaml.xml.XMLObject;
+import org.opensaml.xml.XMLObjectBuilder;
+import org.opensaml.xml.XMLObjectBuilderFactory;
+import org.opensaml.xml.schema.XSString;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The OpenSAML library, as it is used by the test suites and the mock IdP.
+ *
+ * OpenSAML is bootstrapped only once, the first time the runtime is requested. The builders for the SAML
+ * objects that the test suites create are looked up at the same time, so creating a SAML Response does not
+ * require bootstrapping OpenSAML or looking up builders again. The builders are stateless, so they can be used
+ * from several threads at the same time.
+ *
+ * @author RiaasM
+ *
+ */
+public final class OpenSAMLRuntime {
+	/**
+	 * Logger for this class
+	 */
+	private static final Logger logger = LoggerFactory.getLogger(OpenSAMLRuntime.class);
+	/**
+	 * The runtime, only available once it has been requested
+	 */
+	private static volatile OpenSAMLRuntime instance;
+	/**
+	 * The time (in milliseconds) it took to bootstrap OpenSAML and look up the builders
+	 */
+	private final long startupTime;
+
+	private final SAMLObjectBuilder<Response> responseBuilder;
+	private final SAMLObjectBuilder<Status> statusBuilder;
+	private final SAMLObjectBuilder<StatusCode> statusCodeBuilder;
+	private final SAMLObjectBuilder<Assertion> assertionBuilder;
+	private final SAMLObjectBuilder<Issuer> issuerBuilder;
+	private final SAMLObjectBuilder<Subject> subjectBuilder;
+	private final SAMLObjectBuilder<NameID> nameIDBuilder;
+	private final SAMLObjectBuilder<SubjectConfirmation> subjectConfirmationBuilder;
+	private final SAMLObjectBuilder<SubjectConfirmationData> subjectConfirmationDataBuilder;
+	private final SAMLObjectBuilder<Conditions> conditionsBuilder;
+	private final SAMLObjectBuilder<AudienceRestriction> audienceRestrictionBuilder;
+	private final SAMLObjectBuilder<Audience> audienceBuilder;
+	private final SAMLObjectBuilder<AuthnStatement> authnStatementBuilder;
+	private final SAMLObjectBuilder<AuthnContext> authnContextBuilder;
+	private final SAMLObjectBuilder<AuthnContextClassRef> authnContextClassRefBuilder;
+	private final SAMLObjectBuilder<AttributeStatement> attributeStatementBuilder;
+	private final SAMLObjectBuilder<Attribute> attributeBuilder;
+	private final XMLObjectBuilder<XSString> stringBuilder;
+	private final SAMLObjectBuilder<EntityDescriptor> entityDescriptorBuilder;
+	private final SAMLObjectBuilder<IDPSSODescriptor> idpSSODescriptorBuilder;
+	private final SAMLObjectBuilder<SingleSignOnService> singleSignOnServiceBuilder;
+	private final SAMLObjectBuilder<KeyDescriptor> keyDescriptorBuilder;
+
+	/**
+	 * Retrieve the OpenSAML runtime, bootstrapping OpenSAML if this has not been done yet
+	 *
+	 * @return the OpenSAML runtime
+	 * @throws IllegalStateException if OpenSAML could not be bootstrapped
+	 */
+	public static OpenSAMLRuntime get() {
+		OpenSAMLRuntime runtime = instance;
+		if (runtime == null) {
+			synchronized (OpenSAMLRuntime.class) {
+				runtime = instance;
+				if (runtime == null) {
+					runtime = new OpenSAMLRuntime();
+					instance = runtime;
+				}
+			}
+		}
+		return runtime;
+	}
+
+	private OpenSAMLRuntime() {
+		long start = System.nanoTime();
+		try {
+			DefaultBootstrap.bootstrap();
+		} catch (ConfigurationException e) {
+			logger.error("Could not bootstrap OpenSAML", e);
+			throw new IllegalStateException("Could not bootstrap OpenSAML", e);
+		}
+		XMLObjectBuilderFactory builderfac = Configuration.getBuilderFactory();
+		responseBuilder = getBuilder(builderfac, Response.DEFAULT_ELEMENT_NAME);
+		statusBuilder = getBuilder(builderfac, Status.DEFAULT_ELEMENT_NAME);
+		statusCodeBuilder = getBuilder(builderfac, StatusCode.DEFAULT_ELEMENT_NAME);
+		assertionBuilder = getBuilder(builderfac, Assertion.DEFAULT_ELEMENT_NAME);
+		issuerBuilder = getBuilder(builderfac, Issuer.DEFAULT_ELEMENT_NAME);
+		subjectBuilder = getBuilder(builderfac, Subject.DEFAULT_ELEMENT_NAME);
+		nameIDBuilder = getBuilder(builderfac, NameID.DEFAULT_ELEMENT_NAME);
+		subjectConfirmationBuilder = getBuilder(builderfac, SubjectConfirmation.DEFAULT_ELEMENT_NAME);
+		subjectConfirmationDataBuilder = getBuilder(builderfac, SubjectConfirmationData.DEFAULT_ELEMENT_NAME);
+		conditionsBuilder = getBuilder(builderfac, Conditions.DEFAULT_ELEMENT_NAME);
+		audienceRestrictionBuilder = getBuilder(builderfac, AudienceRestriction.DEFAULT_ELEMENT_NAME);
+		audienceBuilder = getBuilder(builderfac, Audience.DEFAULT_ELEMENT_NAME);
+		authnStatementBuilder = getBuilder(builderfac, AuthnStatement.DEFAULT_ELEMENT_NAME);
+		authnContextBuilder = getBuilder(builderfac, AuthnContext.DEFAULT_ELEMENT_NAME);
+		authnContextClassRefBuilder = getBuilder(builderfac, AuthnContextClassRef.DEFAULT_ELEMENT_NAME);
+		attributeStatementBuilder = getBuilder(builderfac, AttributeStatement.DEFAULT_ELEMENT_NAME);
+		attributeBuilder = getBuilder(builderfac, Attribute.DEFAULT_ELEMENT_NAME);
+		stringBuilder = getXMLBuilder(builderfac, XSString.TYPE_NAME);
+		entityDescriptorBuilder = getBuilder(builderfac, EntityDescriptor.DEFAULT_ELEMENT_NAME);
+		idpSSODescriptorBuilder = getBuilder(builderfac, IDPSSODescriptor.DEFAULT_ELEMENT_NAME);
+		singleSignOnServiceBuilder = getBuilder(builderfac, SingleSignOnService.DEFAULT_ELEMENT_NAME);
+		keyDescriptorBuilder = getBuilder(builderfac, KeyDescriptor.DEFAULT_ELEMENT_NAME);
+		startupTime = (System.nanoTime() - start) / 1000000;
+		logger.info("OpenSAML was bootstrapped in " + startupTime + " ms");
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T extends SAMLObject> SAMLObjectBuilder<T> getBuilder(XMLObjectBuilderFactory builderfac, QName name) {
+		return (SAMLObjectBuilder<T>) getXMLBuilder(builderfac, name);
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T extends XMLObject> XMLObjectBuilder<T> getXMLBuilder(XMLObjectBuilderFactory builderfac, QName name) {
+		XMLObjectBuilder<T> builder = builderfac.getBuilder(name);
+		if (builder == null) {
+			throw new IllegalStateException("OpenSAML has no builder for " + name);
+		}
+		return builder;
+	}
+
+	/**
+	 * Create an AttributeValue that contains a string
+	 *
+	 * @return the new AttributeValue
+	 */
+	public XSString buildStringAttributeValue() {
+		return stringBuilder.buildObject(AttributeValue.DEFAULT_ELEMENT_NAME, XSString.TYPE_NAME);
+	}
+
+	/*
+	 * Simple getters
+	 */
+
+	/**
+	 * @return the time (in milliseconds) it took to bootstrap OpenSAML and look up the builders
+	 */
+	public long getStartupTime() {
+		return startupTime;
+	}
+	public SAMLObjectBuilder<Response> getResponseBuilder() {
+		return responseBuilder;
+	}
+	public SAMLObjectBuilder<Status> getStatusBuilder() {
+		return statusBuilder;
+	}
+	public SAMLObjectBuilder<StatusCode> getStatusCodeBuilder() {
+		return statusCodeBuilder;
+	}
+	public SAMLObjectBuilder<Assertion> getAssertionBuilder() {
+		return assertionBuilder;
+	}
+	public SAMLObjectBuilder<Issuer> getIssuerBuilder() {
+		return issuerBuilder;
+	}
+	public SAMLObjectBuilder<Subject> getSubjectBuilder() {
+		return subjectBuilder;
+	}
+	public SAMLObjectBuilder<NameID> getNameIDBuilder() {
+		return nameIDBuilder;
+	}
+	public SAMLObjectBuilder<SubjectConfirmation> getSubjectConfirmationBuilder() {
+		return subjectConfirmationBuilder;
+	}
+	public SAMLObjectBuilder<SubjectConfirmationData> getSubjectConfirmationDataBuilder() {
+		return subjectConfirmationDataBuilder;
+	}
+	public SAMLObjectBuilder<Conditions> getConditionsBuilder() {
+		return conditionsBuilder;
+	}
+	public SAMLObjectBuilder<AudienceRestriction> getAudienceRestrictionBuilder() {
+		return audienceRestrictionBuilder;
+	}
+	public SAMLObjectBuilder<Audience> getAudienceBuilder() {
+		return audienceBuilder;
+	}
+	public SAMLObjectBuilder<AuthnStatement> getAuthnStatementBuilder() {
+		return authnStatementBuilder;
+	}
+	public SAMLObjectBuilder<AuthnContext> getAuthnContextBuilder() {
+		return authnContextBuilder;
+	}
+	public SAMLObjectBuilder<AuthnContextClassRef> getAuthnContextClassRefBuilder() {
+		return authnContextClassRefBuilder;
+	}
+	public SAMLObjectBuilder<AttributeStatement> getAttributeStatementBuilder() {
+		return attributeStatementBuilder;
+	}
+	public SAMLObjectBuilder<Attribute> getAttributeBuilder() {
+		return attributeBuilder;
+	}
+	public SAMLObjectBuilder<EntityDescriptor> getEntityDescriptorBuilder() {
+		return entityDescriptorBuilder;
+	}
+	public SAMLObjectBuilder<IDPSSODescriptor> getIDPSSODescriptorBuilder() {
+		return idpSSODescriptorBuilder;
+	}
+	public SAMLObjectBuilder<SingleSignOnService> getSingleSignOnServiceBuilder() {
+		return singleSignOnServiceBuilder;
+	}
+	public SAMLObjectBuilder<KeyDescriptor> getKeyDescriptorBuilder() {
+		return keyDescriptorBuilder;
+	}
+}
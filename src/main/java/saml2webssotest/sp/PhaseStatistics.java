@@ -0,0 +1,104 @@
+package saml2webssotest.sp;
+
+import org.HdrHistogram.Histogram;
+
+/**
+ * The latencies and errors of one phase of the login attempts in a load run.
+ *
+ * The latencies are recorded in a histogram (in microseconds, with 3 significant digits), so the percentiles
+ * stay accurate regardless of the number of login attempts. Latencies can be recorded from several threads at the
+ * same time.
+ *
+ * @author RiaasM
+ *
+ */
+public class PhaseStatistics {
+	/**
+	 * The number of significant digits with which the latencies are recorded
+	 */
+	private static final int SIGNIFICANT_DIGITS = 3;
+	/**
+	 * The name of the phase
+	 */
+	private final String name;
+	/**
+	 * The recorded latencies (in microseconds)
+	 */
+	private final Histogram latencies;
+	private int errors = 0;
+
+	public PhaseStatistics(String name) {
+		this.name = name;
+		this.latencies = new Histogram(SIGNIFICANT_DIGITS);
+	}
+
+	/**
+	 * Record the latency of a successful pass through this phase
+	 *
+	 * @param latencyNS is the latency in nanoseconds
+	 */
+	public synchronized void record(long latencyNS) {
+		latencies.recordValue(Math.max(0, latencyNS / 1000));
+	}
+
+	/**
+	 * Add previously recorded latencies, e.g. from a histogram log of another load run
+	 *
+	 * @param recorded are the latencies in microseconds
+	 */
+	public synchronized void add(Histogram recorded) {
+		latencies.add(recorded);
+	}
+
+	/**
+	 * Record a login attempt that failed in this phase
+	 */
+	public synchronized void recordError() {
+		errors++;
+	}
+
+	/**
+	 * Retrieve the given percentile of the recorded latencies
+	 *
+	 * @param percentile is the percentile, between 0 and 100
+	 * @return the latency (in microseconds) below which the given percentage of the latencies lie, or 0 if nothing was recorded
+	 */
+	public synchronized long getPercentile(double percentile) {
+		if (latencies.getTotalCount() == 0) {
+			return 0;
+		}
+		return latencies.getValueAtPercentile(percentile);
+	}
+
+	/**
+	 * @return a summary of the recorded latencies and errors
+	 */
+	public synchronized String getSummary() {
+		long count = latencies.getTotalCount();
+		long total = count + errors;
+		return String.format("%d passed, %d failed (%.2f%%), latency p50 %.1f ms, p90 %.1f ms, p99 %.1f ms, max %.1f ms",
+				count, errors, total == 0 ? 0.0 : errors * 100.0 / total,
+				getPercentile(50) / 1000.0, getPercentile(90) / 1000.0, getPercentile(99) / 1000.0, getPercentile(100) / 1000.0);
+	}
+
+	/**
+	 * @return a copy of the recorded latencies (in microseconds)
+	 */
+	public synchronized Histogram getLatencies() {
+		return latencies.copy();
+	}
+
+	/*
+	 * Simple getters
+	 */
+
+	public String getName() {
+		return name;
+	}
+	public synchronized long getCount() {
+		return latencies.getTotalCount();
+	}
+	public synchronized int getErrors() {
+		return errors;
+	}
+}
@@ -0,0 +1,68 @@
+package saml2webssotest.sp;
+
+/**
+ * The local ports on which the mock server may listen.
+ *
+ * The ports are given as a single port (e.g. "8080"), a range of ports (e.g. "8080-8099") from which the first
+ * free port is used, or "0" to let the operating system choose a free (ephemeral) port. A range lets several
+ * test runners on the same host each start their own mock server, without configuring a port for each of them.
+ *
+ * @author RiaasM
+ *
+ */
+public class PortRange {
+	private final int first;
+	private final int last;
+
+	private PortRange(int first, int last) {
+		this.first = first;
+		this.last = last;
+	}
+
+	/**
+	 * Parse the given ports
+	 *
+	 * @param ports is a single port, a range of ports like "8080-8099", or "0" for an ephemeral port
+	 * @return the parsed ports
+	 * @throws NumberFormatException if the ports are not valid
+	 */
+	public static PortRange parse(String ports) {
+		String[] bounds = ports.trim().split("-", 2);
+		int first = Integer.parseInt(bounds[0].trim());
+		int last = bounds.length > 1 ? Integer.parseInt(bounds[1].trim()) : first;
+		if (first < 0 || last > 65535 || last < first || (first == 0 && last != 0)) {
+			throw new NumberFormatException("The ports " + ports + " are not a valid port range");
+		}
+		return new PortRange(first, last);
+	}
+
+	/**
+	 * @return true if the operating system should choose the port
+	 */
+	public boolean isEphemeral() {
+		return first == 0;
+	}
+
+	/**
+	 * @return true if the range contains only a single port
+	 */
+	public boolean isSinglePort() {
+		return first == last;
+	}
+
+	/*
+	 * Simple getters
+	 */
+
+	public int getFirst() {
+		return first;
+	}
+	public int getLast() {
+		return last;
+	}
+
+	@Override
+	public String toString() {
+		return first == last ? String.valueOf(first) : first + "-" + last;
+	}
+}
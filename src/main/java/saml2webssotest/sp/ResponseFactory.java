@@ -0,0 +1,26 @@
+package saml2webssotest.sp;
+
+/**
+ * Creates the SAML Response that the mock IdP sends for a login attempt.
+ *
+ * A test case can register a factory instead of a complete SAML Response. The factory is called by the
+ * mock IdP once it has received the AuthnRequest, so the Response can be created with the actual values
+ * from that request. This means the Response is created, signed and converted to XML only once, instead of
+ * having placeholders replaced and signatures updated afterwards.
+ *
+ * The factory is called on the thread of the mock IdP, possibly for several login attempts at the same time.
+ *
+ * @author RiaasM
+ *
+ */
+public interface ResponseFactory {
+	/**
+	 * Create the SAML Response for a login attempt
+	 *
+	 * @param requestID is the ID of the AuthnRequest that the Response should answer, or null if IdP-initiated
+	 * @param acsURL is the location of the AssertionConsumerService to which the Response will be sent
+	 * @param acsBinding is the binding of the AssertionConsumerService to which the Response will be sent
+	 * @return the SAML Response (as XML) that should be sent by the mock IdP
+	 */
+	String createResponse(String requestID, String acsURL, String acsBinding);
+}
@@ -0,0 +1,570 @@
+package saml2webssotest.sp;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import com.gargoylesoftware.htmlunit.WebClient;
+
+import saml2webssotest.common.TestResult;
+import saml2webssotest.sp.testsuites.SPTestSuite;
+
+/**
+ * Sends large numbers of structurally mutated SAML Responses to the target SP.
+ *
+ * Each variant is the minimal Web SSO Response of the test suite (see
+ * {@link SPTestSuite#copyMinimalWebSSOResponse(String, String, long)}) with one or two mutations from the following
+ * families:
+ * <ul>
+ * <li>swap: the values of two attributes or elements are swapped</li>
+ * <li>duplicate: an element that may occur more than once is duplicated</li>
+ * <li>remove: a required attribute is removed</li>
+ * <li>time: a time is set to an edge value or shifted by an edge amount</li>
+ * <li>wrap: an unsigned copy of the signed Assertion is added next to it (signature wrapping)</li>
+ * </ul>
+ *
+ * Each mutation states whether a compliant SP must accept or must reject the Response it creates. A variant must
+ * be rejected if any of its mutations must be rejected. Mutations whose verdict depends on the policy of the SP (e.g.
+ * how old an IssueInstant may be) are not used. All mutations inside the Assertion are made before it is signed, so
+ * the SP can not reject them merely because the signature is broken.
+ *
+ * The variants are sent concurrently on the given worker threads, each of which reuses its own browser and its own
+ * exchange with the mock IdP, so the worker threads should be reused (i.e. not one thread per variant). Whether the
+ * login attempt succeeded is determined the same way as for the login test cases (see
+ * {@link SPTestRunner#attemptLoginOutcome(WebClient, boolean)}). The rejected variants are grouped by the page on
+ * which the login attempt ended (see {@link LoginOutcome#getRejectionClass()}), so each way in which the target SP
+ * rejects a Response is only reported once. The accepted variants that must be rejected are grouped by the families
+ * of the mutations that made them invalid, so each kind of bypass is reported separately.
+ *
+ * @author RiaasM
+ *
+ */
+public class ResponseFuzzer {
+	/**
+	 * Logger for this class
+	 */
+	private final Logger logger = LoggerFactory.getLogger(ResponseFuzzer.class);
+	/**
+	 * The paths of the attributes and elements whose values can be swapped
+	 */
+	private static final String[] SWAP_TARGETS = {
+		"Response/@ID", "Assertion/@ID", "Response/@InResponseTo", "SubjectConfirmationData/@InResponseTo",
+		"SubjectConfirmationData/@Recipient", "Response/@IssueInstant", "Assertion/@IssueInstant",
+		"SubjectConfirmationData/@NotOnOrAfter", "AuthnStatement/@AuthnInstant", "SubjectConfirmation/@Method",
+		"Assertion/Issuer", "Audience"
+	};
+	/**
+	 * The groups of swap targets whose values can be swapped without making the Response invalid
+	 */
+	private static final String[][] INTERCHANGEABLE_TARGETS = {
+		{ "Response/@ID", "Assertion/@ID" },
+		{ "Response/@InResponseTo", "SubjectConfirmationData/@InResponseTo" },
+		{ "Response/@IssueInstant", "Assertion/@IssueInstant", "SubjectConfirmationData/@NotOnOrAfter", "AuthnStatement/@AuthnInstant" }
+	};
+	/**
+	 * The paths of the elements that can be duplicated, which may all occur more than once in a valid Response.
+	 * Elements that may only occur once (e.g. the Issuer or Subject of the Assertion) are not duplicated, since OpenSAML 
+	 * only keeps one of them when the Assertion is signed.
+	 */
+	private static final String[] DUPLICATE_TARGETS = {
+		"Response/Assertion", "Subject/SubjectConfirmation", "AudienceRestriction/Audience", "Assertion/AuthnStatement",
+		"Assertion/AttributeStatement"
+	};
+	/**
+	 * The paths of the required attributes that can be removed
+	 */
+	private static final String[] REMOVE_TARGETS = {
+		"Response/@ID", "Response/@Version", "Response/@IssueInstant", "Assertion/@ID", "Assertion/@IssueInstant", 
+		"SubjectConfirmation/@Method", "SubjectConfirmationData/@Recipient", "SubjectConfirmationData/@NotOnOrAfter", 
+		"AuthnStatement/@AuthnInstant"
+	};
+	/**
+	 * The paths of the times that end the validity of the Assertion
+	 */
+	private static final String[] VALIDITY_END_TARGETS = {
+		"SubjectConfirmationData/@NotOnOrAfter", "Conditions/@NotOnOrAfter"
+	};
+	/**
+	 * The paths of the times that start the validity of the Assertion
+	 */
+	private static final String[] VALIDITY_START_TARGETS = {
+		"Conditions/@NotBefore"
+	};
+	/**
+	 * The paths of the times at which the Response and Assertion were issued, or the user was authenticated
+	 */
+	private static final String[] INSTANT_TARGETS = {
+		"Response/@IssueInstant", "Assertion/@IssueInstant", "AuthnStatement/@AuthnInstant"
+	};
+	private static final String[] PAST_TIME_VALUES = {
+		"1970-01-01T00:00:00Z", "2016-12-31T23:59:59.999-14:00"
+	};
+	private static final String[] FUTURE_TIME_VALUES = {
+		"9999-12-31T23:59:59Z"
+	};
+	/**
+	 * The time shifts that are small enough to be allowed for any time
+	 */
+	private static final String[] SMALL_TIME_SHIFTS = {
+		"-PT5M", "-PT1S", "PT1S", "PT5M"
+	};
+	/**
+	 * The time shifts that are too large to be allowed, at least for the end of the validity
+	 */
+	private static final String[] LARGE_TIME_SHIFTS = {
+		"-P1D", "-PT1H", "PT1H", "P1D"
+	};
+
+	/**
+	 * A mutation that can be used in a variant
+	 */
+	private static class FuzzMutation {
+		private final String family;
+		private final String description;
+		private final DOMMutation mutation;
+		private final boolean afterSigning;
+		/**
+		 * Whether a compliant SP must reject the Response with this mutation (otherwise it must accept it)
+		 */
+		private final boolean mustReject;
+
+		public FuzzMutation(String family, String description, DOMMutation mutation, boolean afterSigning, boolean mustReject) {
+			this.family = family;
+			this.description = description;
+			this.mutation = mutation;
+			this.afterSigning = afterSigning;
+			this.mustReject = mustReject;
+		}
+	}
+
+	/**
+	 * The login attempts that ended in the same way
+	 */
+	private static class OutcomeClass {
+		private final LoginOutcome outcome;
+		/**
+		 * Whether the login attempts in this class used Responses that a compliant SP must accept
+		 */
+		private final boolean expectLogin;
+		private final String example;
+		private final AtomicInteger count = new AtomicInteger();
+		private final Set<String> families = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+		public OutcomeClass(LoginOutcome outcome, boolean expectLogin, String example) {
+			this.outcome = outcome;
+			this.expectLogin = expectLogin;
+			this.example = example;
+		}
+	}
+
+	private final SPTestSuite suite;
+	private final long seed;
+	/**
+	 * The mutations that can be used in the variants, which are created only once
+	 */
+	private final List<FuzzMutation> catalog = new ArrayList<FuzzMutation>();
+	/**
+	 * The outcomes of the login attempts, by the way they ended and whether the Responses were valid
+	 */
+	private final ConcurrentHashMap<String, OutcomeClass> outcomes = new ConcurrentHashMap<String, OutcomeClass>();
+
+	/**
+	 * Create a fuzzer for the target SP of the given test suite
+	 *
+	 * @param suite is the test suite that provides the minimal Web SSO Response and the mock IdP
+	 * @param seed determines which variants are created, so a fuzzing run can be repeated
+	 */
+	public ResponseFuzzer(SPTestSuite suite, long seed) {
+		this.suite = suite;
+		this.seed = seed;
+		for (int i = 0; i < SWAP_TARGETS.length; i++) {
+			for (int j = i + 1; j < SWAP_TARGETS.length; j++) {
+				// a time that is swapped with something else makes the Response unreadable for OpenSAML, so it 
+				// could only be swapped after signing, where it would only test the signature
+				if (isTime(SWAP_TARGETS[i]) != isTime(SWAP_TARGETS[j])) {
+					continue;
+				}
+				catalog.add(new FuzzMutation("swap", "swap " + SWAP_TARGETS[i] + " and " + SWAP_TARGETS[j],
+						new SwapValues(ResponsePath.parse(SWAP_TARGETS[i]), ResponsePath.parse(SWAP_TARGETS[j])), false,
+						!isInterchangeable(SWAP_TARGETS[i], SWAP_TARGETS[j])));
+			}
+		}
+		for (String target : DUPLICATE_TARGETS) {
+			catalog.add(new FuzzMutation("duplicate", "duplicate " + target, new DuplicateElement(ResponsePath.parse(target)), false, false));
+		}
+		for (String target : REMOVE_TARGETS) {
+			// OpenSAML can not write a Response without a Version, but the Response is not signed
+			catalog.add(new FuzzMutation("remove", "remove " + target, ResponseMutation.compile("remove", target, null, null),
+					target.equals("Response/@Version"), true));
+		}
+		for (String target : VALIDITY_END_TARGETS) {
+			addTimeValues(target, PAST_TIME_VALUES, true);
+			addTimeValues(target, FUTURE_TIME_VALUES, false);
+			addTimeShifts(target, SMALL_TIME_SHIFTS, false);
+			for (String shift : LARGE_TIME_SHIFTS) {
+				// an Assertion may be valid for longer, but not end its validity long before it was received
+				addTimeShifts(target, new String[] { shift }, shift.startsWith("-"));
+			}
+		}
+		for (String target : VALIDITY_START_TARGETS) {
+			addTimeValues(target, PAST_TIME_VALUES, false);
+			addTimeValues(target, FUTURE_TIME_VALUES, true);
+			addTimeShifts(target, SMALL_TIME_SHIFTS, false);
+		}
+		for (String target : INSTANT_TARGETS) {
+			// how old or new these times may be otherwise is up to the SP
+			addTimeShifts(target, SMALL_TIME_SHIFTS, false);
+		}
+		for (WrapAssertion.Placement placement : WrapAssertion.Placement.values()) {
+			catalog.add(new FuzzMutation("wrap", "wrap the signed Assertion (" + placement.name().toLowerCase() + ")", new WrapAssertion(placement), true, true));
+		}
+	}
+
+	private void addTimeValues(String target, String[] values, boolean mustReject) {
+		for (String value : values) {
+			catalog.add(new FuzzMutation("time", "set " + target + " to \"" + value + "\"", ResponseMutation.compile("set", target, value, null), false, mustReject));
+		}
+	}
+
+	private void addTimeShifts(String target, String[] shifts, boolean mustReject) {
+		for (String shift : shifts) {
+			catalog.add(new FuzzMutation("time", "shift " + target + " by " + shift, ResponseMutation.compile("shift", target, null, shift), false, mustReject));
+		}
+	}
+
+	private static boolean isTime(String path) {
+		return path.endsWith("Instant") || path.endsWith("NotOnOrAfter");
+	}
+
+	private static boolean isInterchangeable(String first, String second) {
+		for (String[] group : INTERCHANGEABLE_TARGETS) {
+			List<String> targets = Arrays.asList(group);
+			if (targets.contains(first) && targets.contains(second)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Create the variant with the given index
+	 *
+	 * @param index is the index of the variant
+	 * @param families is the set to which the families of the mutations that determine the expected verdict are 
+	 * added, i.e. the mutations that must be rejected or, if there are none, all mutations
+	 * @return the mutation pipeline for the variant, which expects a login if none of its mutations must be rejected
+	 */
+	private MutationPipeline newVariant(int index, Set<String> families) {
+		Random random = new Random(seed * 31 + index);
+		int size = 1 + random.nextInt(2);
+		ArrayList<DOMMutation> beforeSigning = new ArrayList<DOMMutation>();
+		ArrayList<DOMMutation> afterSigning = new ArrayList<DOMMutation>();
+		TreeSet<String> validFamilies = new TreeSet<String>();
+		StringBuilder description = new StringBuilder();
+		for (int i = 0; i < size; i++) {
+			FuzzMutation mutation = catalog.get(random.nextInt(catalog.size()));
+			(mutation.afterSigning ? afterSigning : beforeSigning).add(mutation.mutation);
+			(mutation.mustReject ? families : validFamilies).add(mutation.family);
+			description.append(description.length() > 0 ? ", " : "").append(mutation.description);
+		}
+		boolean expectLogin = families.isEmpty();
+		if (expectLogin) {
+			families.addAll(validFamilies);
+		}
+		return new MutationPipeline("Fuzz-" + index, description.toString(), false, true, expectLogin,
+				MutationPipeline.Signing.ASSERTION, beforeSigning, afterSigning);
+	}
+
+	/**
+	 * Send the given number of variants to the target SP and group their outcomes.
+	 *
+	 * A login attempt with the unchanged minimal Response is made first, since the outcomes of the variants
+	 * can only be trusted if that login attempt succeeds.
+	 *
+	 * @param runner is the test runner that performs the login attempts
+	 * @param variants is the number of variants that should be sent
+	 * @param workers are the worker threads on which the variants are sent
+	 * @return a result for each class of outcomes, where only the classes of accepted Responses that must be 
+	 * rejected fail
+	 */
+	public List<TestResult> run(final SPTestRunner runner, int variants, ExecutorService workers) {
+		final ConcurrentLinkedQueue<WebClient> browsers = new ConcurrentLinkedQueue<WebClient>();
+		// each worker thread reuses its own browser, which is only cleared between login attempts
+		final ThreadLocal<WebClient> workerBrowser = new ThreadLocal<WebClient>() {
+			@Override
+			protected WebClient initialValue() {
+				WebClient browser = runner.getNewBrowser();
+				browsers.add(browser);
+				return browser;
+			}
+		};
+		ArrayList<TestResult> results = new ArrayList<TestResult>();
+		try {
+			MutationPipeline baseline = new MutationPipeline("Fuzz-baseline", "", false, true, true, MutationPipeline.Signing.ASSERTION,
+					Collections.<DOMMutation>emptyList(), Collections.<DOMMutation>emptyList());
+			LoginOutcome baselineOutcome = attempt(runner, workerBrowser.get(), baseline);
+			if (!Boolean.TRUE.equals(baselineOutcome.getLogin())) {
+				results.add(new TestResult("FuzzBaseline")
+						.withDescription("The target SP should allow login with the unchanged minimal Response before it is fuzzed")
+						.isMandatory(true)
+						.withResultStatus(false)
+						.withResultMessage("The login attempt with the unchanged minimal Response ended " + baselineOutcome.getRejectionClass()));
+				return results;
+			}
+
+			logger.info("Sending " + variants + " variant(s) created from " + catalog.size() + " mutations with seed " + seed);
+			long start = System.nanoTime();
+			ArrayList<Future<?>> pending = new ArrayList<Future<?>>();
+			for (int i = 0; i < variants; i++) {
+				final int index = i;
+				pending.add(workers.submit(new Runnable() {
+					@Override
+					public void run() {
+						Set<String> families = new TreeSet<String>();
+						MutationPipeline variant = newVariant(index, families);
+						LoginOutcome outcome = attempt(runner, workerBrowser.get(), variant);
+						record(variant, families, outcome);
+					}
+				}));
+			}
+			for (Future<?> future : pending) {
+				try {
+					future.get();
+				} catch (ExecutionException e) {
+					logger.error("A variant could not be sent", e.getCause());
+				}
+			}
+			long elapsedMS = Math.max(1, (System.nanoTime() - start) / 1000000);
+			logger.info("Sent " + variants + " variant(s) in " + elapsedMS + " ms (" + (variants * 60000L / elapsedMS) + " per minute), "
+					+ outcomes.size() + " distinct outcome(s)");
+		} catch (InterruptedException e) {
+			logger.error("Interrupted while fuzzing the target SP", e);
+			Thread.currentThread().interrupt();
+		} finally {
+			for (WebClient browser : browsers) {
+				runner.releaseBrowser(browser);
+			}
+		}
+
+		ArrayList<String> classes = new ArrayList<String>(outcomes.keySet());
+		Collections.sort(classes);
+		for (String outcomeKey : classes) {
+			OutcomeClass outcomeClass = outcomes.get(outcomeKey);
+			Boolean login = outcomeClass.outcome.getLogin();
+			String message;
+			if (login == null) {
+				message = "The login attempts could not be completed";
+			}
+			else if (login) {
+				message = outcomeClass.expectLogin ? "The Service Provider allowed login with these valid Responses"
+						: "The Service Provider allowed login with these invalid Responses";
+			}
+			else {
+				message = outcomeClass.expectLogin ? "The Service Provider rejected these Responses, although they are valid"
+						: "The Service Provider rejected these invalid Responses";
+			}
+			results.add(new TestResult("Fuzz " + outcomeKey)
+					.withDescription(outcomeClass.count.get() + " variant(s) with mutations of the families " + new TreeSet<String>(outcomeClass.families)
+							+ ", e.g. " + outcomeClass.example)
+					.isMandatory(false)
+					// only accepting a Response that must be rejected is a failure, rejecting a valid Response is merely strict
+					.withResultStatus(!(Boolean.TRUE.equals(login) && !outcomeClass.expectLogin))
+					.withResultMessage(message));
+		}
+		return results;
+	}
+
+	private LoginOutcome attempt(SPTestRunner runner, WebClient browser, MutationPipeline variant) {
+		browser.getCookieManager().clearCookies();
+		runner.setResponseFactory(variant.newResponseFactory(suite));
+		try {
+			return runner.attemptLoginOutcome(browser, variant.isSpInitiated());
+		} catch (RuntimeException e) {
+			// the variant may be so broken that the browser or the mock IdP can not handle it
+			logger.debug("The login attempt with variant " + variant.getName() + " failed", e);
+			return LoginOutcome.INCOMPLETE;
+		}
+	}
+
+	private void record(MutationPipeline variant, Set<String> families, LoginOutcome outcome) {
+		String outcomeKey;
+		if (Boolean.TRUE.equals(outcome.getLogin()) && !variant.isExpectLogin()) {
+			// group the bypasses by the families of the mutations that made the Responses invalid, whatever page they ended on
+			outcomeKey = "accepted invalid " + families;
+		}
+		else {
+			outcomeKey = outcome.getRejectionClass() + (variant.isExpectLogin() ? " (valid)" : " (invalid)");
+		}
+		OutcomeClass outcomeClass = outcomes.get(outcomeKey);
+		if (outcomeClass == null) {
+			OutcomeClass created = new OutcomeClass(outcome, variant.isExpectLogin(), variant.getName() + ": " + variant.getDescription());
+			outcomeClass = outcomes.putIfAbsent(outcomeKey, created);
+			if (outcomeClass == null) {
+				outcomeClass = created;
+				logger.info("New outcome " + outcomeKey + " for " + created.example);
+			}
+		}
+		outcomeClass.count.incrementAndGet();
+		outcomeClass.families.addAll(families);
+	}
+
+	/**
+	 * Swap the values of the first matches of two paths
+	 */
+	private static class SwapValues implements DOMMutation {
+		private final ResponsePath first;
+		private final ResponsePath second;
+
+		public SwapValues(ResponsePath first, ResponsePath second) {
+			this.first = first;
+			this.second = second;
+		}
+
+		@Override
+		public int apply(Element response) {
+			List<Element> firstElements = first.find(response);
+			List<Element> secondElements = second.find(response);
+			if (firstElements.isEmpty() || secondElements.isEmpty()) {
+				return 0;
+			}
+			String firstValue = first.getValue(firstElements.get(0));
+			first.setValue(firstElements.get(0), second.getValue(secondElements.get(0)));
+			second.setValue(secondElements.get(0), firstValue);
+			return 2;
+		}
+
+		@Override
+		public String toString() {
+			return "swap " + first + " and " + second;
+		}
+	}
+
+	/**
+	 * Add a copy of the first matching element directly after it, with a new ID if it has one
+	 */
+	private static class DuplicateElement implements DOMMutation {
+		private final ResponsePath target;
+
+		public DuplicateElement(ResponsePath target) {
+			this.target = target;
+		}
+
+		@Override
+		public int apply(Element response) {
+			List<Element> elements = target.find(response);
+			if (elements.isEmpty() || elements.get(0) == response) {
+				return 0;
+			}
+			Element original = elements.get(0);
+			Element copy = (Element) original.cloneNode(true);
+			if (copy.hasAttributeNS(null, "ID")) {
+				copy.setAttributeNS(null, "ID", "_" + UUID.randomUUID().toString());
+			}
+			original.getParentNode().insertBefore(copy, original.getNextSibling());
+			return 1;
+		}
+
+		@Override
+		public String toString() {
+			return "duplicate " + target;
+		}
+	}
+
+	/**
+	 * Add an unsigned copy of the signed Assertion, whose attribute values are changed, and move the
+	 * signed Assertion out of the way
+	 */
+	private static class WrapAssertion implements DOMMutation {
+		/**
+		 * Where the signed Assertion and its copy are placed
+		 */
+		public enum Placement {
+			/**
+			 * The copy is placed before the signed Assertion
+			 */
+			COPY_FIRST,
+			/**
+			 * The copy is placed after the signed Assertion
+			 */
+			COPY_LAST,
+			/**
+			 * The copy replaces the signed Assertion, which is moved to the Extensions of the Response
+			 */
+			ORIGINAL_IN_EXTENSIONS
+		}
+		private static final ResponsePath ASSERTION = ResponsePath.parse("Response/Assertion");
+		private static final ResponsePath SIGNATURE = ResponsePath.parse("Assertion/Signature");
+		private static final ResponsePath ATTRIBUTE_VALUE = ResponsePath.parse("Attribute/AttributeValue");
+		private static final ResponsePath AUDIENCE = ResponsePath.parse("Audience");
+
+		private final Placement placement;
+
+		public WrapAssertion(Placement placement) {
+			this.placement = placement;
+		}
+
+		@Override
+		public int apply(Element response) {
+			List<Element> assertions = ASSERTION.find(response);
+			if (assertions.isEmpty()) {
+				return 0;
+			}
+			Element original = assertions.get(0);
+			Element copy = (Element) original.cloneNode(true);
+			copy.setAttributeNS(null, "ID", "_" + UUID.randomUUID().toString());
+			for (Element signature : SIGNATURE.find(copy)) {
+				SIGNATURE.remove(signature);
+			}
+			// the values in the copy should not be accepted, since they were not signed by the mock IdP
+			List<Element> values = ATTRIBUTE_VALUE.find(copy);
+			if (values.isEmpty()) {
+				values = AUDIENCE.find(copy);
+			}
+			for (Element value : values) {
+				value.setTextContent("saml2webssotest-fuzz");
+			}
+			switch (placement) {
+			case COPY_FIRST:
+				response.insertBefore(copy, original);
+				break;
+			case COPY_LAST:
+				response.insertBefore(copy, original.getNextSibling());
+				break;
+			case ORIGINAL_IN_EXTENSIONS:
+				Element extensions = response.getOwnerDocument().createElementNS(response.getNamespaceURI(),
+						(response.getPrefix() == null ? "" : response.getPrefix() + ":") + "Extensions");
+				response.replaceChild(copy, original);
+				extensions.appendChild(original);
+				// the Extensions come after the Issuer and Signature of the Response
+				Node next = response.getFirstChild();
+				while (next != null && (!(next instanceof Element) || "Issuer".equals(next.getLocalName()) || "Signature".equals(next.getLocalName()))) {
+					next = next.getNextSibling();
+				}
+				response.insertBefore(extensions, next);
+				break;
+			}
+			return 1;
+		}
+
+		@Override
+		public String toString() {
+			return "wrap the signed Assertion (" + placement.name().toLowerCase() + ")";
+		}
+	}
+}
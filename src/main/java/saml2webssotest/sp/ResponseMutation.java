@@ -0,0 +1,158 @@
+package saml2webssotest.sp;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.Period;
+import org.w3c.dom.Element;
+
+/**
+ * A single change to the XML of a SAML Response, compiled from a scenario file (see {@link ResponseScenario}).
+ *
+ * The change is made to every element or attribute that matches its target (see {@link ResponsePath}).
+ *
+ * @author RiaasM
+ *
+ */
+public class ResponseMutation implements DOMMutation {
+	/**
+	 * The types of change that can be made
+	 */
+	public enum Operation {
+		/**
+		 * Set the attribute value or the text content of the element, adding the attribute if necessary
+		 */
+		SET,
+		/**
+		 * Remove the attribute or the element
+		 */
+		REMOVE,
+		/**
+		 * Move the time in the attribute value or the text content of the element
+		 */
+		SHIFT
+	}
+
+	/**
+	 * The local name of the XML Signature element
+	 */
+	private static final String SIGNATURE = "Signature";
+
+	private final Operation operation;
+	private final ResponsePath target;
+	private final String value;
+	/**
+	 * The amount of milliseconds by which the time is moved
+	 */
+	private final long shiftMS;
+
+	private ResponseMutation(Operation operation, ResponsePath target, String value, long shiftMS) {
+		this.operation = operation;
+		this.target = target;
+		this.value = value;
+		this.shiftMS = shiftMS;
+	}
+
+	/**
+	 * Compile a change as it is described in a scenario file
+	 *
+	 * @param op is the type of change ("set", "remove" or "shift")
+	 * @param target is the path to the element or attribute that should be changed
+	 * @param value is the new value ("set" only)
+	 * @param by is the ISO 8601 duration by which the time is moved, optionally preceded by a minus sign ("shift" only)
+	 * @return the compiled change
+	 * @throws IllegalArgumentException if the change is not valid
+	 */
+	public static ResponseMutation compile(String op, String target, String value, String by) {
+		if (op == null) {
+			throw new IllegalArgumentException("A mutation has no op");
+		}
+		Operation operation;
+		try {
+			operation = Operation.valueOf(op.toUpperCase());
+		} catch (IllegalArgumentException e) {
+			throw new IllegalArgumentException("Unknown mutation op: " + op);
+		}
+		if (target == null || target.isEmpty()) {
+			throw new IllegalArgumentException("The " + op + " mutation has no target");
+		}
+		ResponsePath path = ResponsePath.parse(target);
+		if (operation == Operation.REMOVE && path.isResponse()) {
+			throw new IllegalArgumentException("The Response element itself can not be removed");
+		}
+
+		long shiftMS = 0;
+		switch (operation) {
+		case SET:
+			if (value == null) {
+				throw new IllegalArgumentException("The set mutation on " + target + " has no value");
+			}
+			break;
+		case SHIFT:
+			shiftMS = parseDuration(by);
+			break;
+		default:
+			break;
+		}
+		return new ResponseMutation(operation, path, value, shiftMS);
+	}
+
+	private static long parseDuration(String by) {
+		if (by == null || by.isEmpty()) {
+			throw new IllegalArgumentException("The shift mutation has no duration");
+		}
+		boolean negative = by.startsWith("-");
+		try {
+			long ms = Period.parse(negative ? by.substring(1) : by).toStandardDuration().getMillis();
+			return negative ? -ms : ms;
+		} catch (IllegalArgumentException | UnsupportedOperationException e) {
+			throw new IllegalArgumentException("The duration " + by + " is not a valid ISO 8601 duration in days or less");
+		}
+	}
+
+	/**
+	 * Check if this change targets a Signature element, which can only be changed after signing
+	 *
+	 * @return true if the target path contains a Signature element
+	 */
+	public boolean targetsSignature() {
+		return target.contains(SIGNATURE);
+	}
+
+	/**
+	 * Make this change to every matching element in the Response
+	 *
+	 * @param response is the Response element
+	 * @return the number of elements that were changed, which does not include elements whose time could not be parsed
+	 */
+	@Override
+	public int apply(Element response) {
+		int changed = 0;
+		for (Element element : target.find(response)) {
+			switch (operation) {
+			case SET:
+				target.setValue(element, value);
+				break;
+			case REMOVE:
+				target.remove(element);
+				break;
+			case SHIFT:
+				String shifted;
+				try {
+					shifted = new DateTime(target.getValue(element).trim()).plus(shiftMS).toDateTime(DateTimeZone.UTC).toString();
+				} catch (IllegalArgumentException e) {
+					// the element has no time (or no attribute) that can be shifted
+					continue;
+				}
+				target.setValue(element, shifted);
+				break;
+			}
+			changed++;
+		}
+		return changed;
+	}
+
+	@Override
+	public String toString() {
+		return operation.name().toLowerCase() + " " + target;
+	}
+}
@@ -0,0 +1,170 @@
+package saml2webssotest.sp;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+/**
+ * The location of elements or attributes in the XML of a SAML Response.
+ *
+ * A path consists of element names (without namespace prefix), where the last element name may be followed
+ * by an attribute name that starts with "@". The path matches every element whose name and direct parents
+ * match the path, so "SubjectConfirmationData/@Recipient" matches the Recipient attribute of every
+ * SubjectConfirmationData element in the Response. A path that only consists of an attribute matches that
+ * attribute on the Response element itself.
+ *
+ * @author RiaasM
+ *
+ */
+public class ResponsePath {
+	/**
+	 * The element names in the path, from outermost to innermost
+	 */
+	private final List<String> elementPath;
+	/**
+	 * The name of the attribute, or null if the path leads to the elements themselves
+	 */
+	private final String attribute;
+
+	private ResponsePath(List<String> elementPath, String attribute) {
+		this.elementPath = Collections.unmodifiableList(elementPath);
+		this.attribute = attribute;
+	}
+
+	/**
+	 * Parse the given path
+	 *
+	 * @param path is the path, e.g. "SubjectConfirmationData/@Recipient" or "Assertion/Signature"
+	 * @return the parsed path
+	 * @throws IllegalArgumentException if the path is not valid
+	 */
+	public static ResponsePath parse(String path) {
+		if (path == null || path.isEmpty()) {
+			throw new IllegalArgumentException("The path is empty");
+		}
+		ArrayList<String> elementPath = new ArrayList<String>(Arrays.asList(path.split("/")));
+		String attribute = null;
+		String last = elementPath.get(elementPath.size() - 1);
+		if (last.startsWith("@")) {
+			attribute = last.substring(1);
+			elementPath.remove(elementPath.size() - 1);
+		}
+		if (elementPath.contains("") || (attribute != null && attribute.isEmpty())) {
+			throw new IllegalArgumentException("The target " + path + " is not a valid path");
+		}
+		return new ResponsePath(elementPath, attribute);
+	}
+
+	/**
+	 * Find the elements that match this path, in document order
+	 *
+	 * @param response is the Response element
+	 * @return the matching elements, which can be changed or removed without affecting the list
+	 */
+	public List<Element> find(Element response) {
+		ArrayList<Element> found = new ArrayList<Element>();
+		if (elementPath.isEmpty() || matches(response)) {
+			found.add(response);
+		}
+		if (!elementPath.isEmpty()) {
+			NodeList candidates = response.getElementsByTagNameNS("*", elementPath.get(elementPath.size() - 1));
+			for (int i = 0; i < candidates.getLength(); i++) {
+				Element candidate = (Element) candidates.item(i);
+				if (matches(candidate)) {
+					found.add(candidate);
+				}
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * Check if the element and its parents match the element names in this path
+	 */
+	private boolean matches(Element element) {
+		Node current = element;
+		for (int i = elementPath.size() - 1; i >= 0; i--) {
+			if (!(current instanceof Element) || !elementPath.get(i).equals(current.getLocalName())) {
+				return false;
+			}
+			current = current.getParentNode();
+		}
+		return true;
+	}
+
+	/**
+	 * Retrieve the attribute value or text content that this path leads to on the given element
+	 *
+	 * @param element is an element that matches this path
+	 * @return the value, or an empty string if the attribute is not present
+	 */
+	public String getValue(Element element) {
+		return attribute != null ? element.getAttributeNS(null, attribute) : element.getTextContent();
+	}
+
+	/**
+	 * Set the attribute value or text content that this path leads to on the given element, adding the attribute if necessary
+	 *
+	 * @param element is an element that matches this path
+	 * @param value is the new value
+	 */
+	public void setValue(Element element, String value) {
+		if (attribute != null) {
+			element.setAttributeNS(null, attribute, value);
+		}
+		else {
+			element.setTextContent(value);
+		}
+	}
+
+	/**
+	 * Remove the attribute that this path leads to from the given element, or the element itself
+	 *
+	 * @param element is an element that matches this path
+	 */
+	public void remove(Element element) {
+		if (attribute != null) {
+			element.removeAttributeNS(null, attribute);
+		}
+		else if (element.getParentNode() != null) {
+			element.getParentNode().removeChild(element);
+		}
+	}
+
+	/**
+	 * Check if the path contains an element with the given name
+	 *
+	 * @param name is the local name of the element
+	 * @return true if the path contains the element
+	 */
+	public boolean contains(String name) {
+		return elementPath.contains(name);
+	}
+
+	/**
+	 * @return true if the path leads to the Response element itself, instead of one of its attributes or descendants
+	 */
+	public boolean isResponse() {
+		return attribute == null && elementPath.equals(Arrays.asList("Response"));
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder path = new StringBuilder();
+		for (String element : elementPath) {
+			if (path.length() > 0) {
+				path.append('/');
+			}
+			path.append(element);
+		}
+		if (attribute != null) {
+			path.append(path.length() > 0 ? "/@" : "@").append(attribute);
+		}
+		return path.toString();
+	}
+}
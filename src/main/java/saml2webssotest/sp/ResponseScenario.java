@@ -0,0 +1,172 @@
+package saml2webssotest.sp;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonIOException;
+import com.google.gson.JsonSyntaxException;
+
+/**
+ * A login scenario, as it is described in a scenario file.
+ *
+ * A scenario file is a JSON array of scenarios. Each scenario describes how the minimal Web SSO Response
+ * should be changed before it is sent to the target SP, and whether the target SP should allow the login
+ * attempt with that Response. For example:
+ *
+ * <pre>
+ * [{
+ *   "name": "ExpiredSubjectConfirmation",
+ *   "description": "The SP should reject an Assertion that can no longer be confirmed",
+ *   "mandatory": true,
+ *   "expectLogin": false,
+ *   "mutations": [{"op": "shift", "target": "SubjectConfirmationData/@NotOnOrAfter", "by": "-PT1H"}]
+ * }]
+ * </pre>
+ *
+ * Each scenario is compiled once into a {@link MutationPipeline}, which is used for every login attempt
+ * of the scenario.
+ *
+ * @author RiaasM
+ *
+ */
+public class ResponseScenario {
+	/**
+	 * Logger for this class
+	 */
+	private static final Logger logger = LoggerFactory.getLogger(ResponseScenario.class);
+	/**
+	 * The name of the scenario, which is used as the name of its test case
+	 */
+	private String name;
+	private String description = "";
+	private boolean mandatory = false;
+	/**
+	 * Determines if the login attempt is SP-initiated (default) or IdP-initiated
+	 */
+	private boolean spInitiated = true;
+	/**
+	 * Determines if the target SP should allow the login attempt
+	 */
+	private boolean expectLogin = false;
+	/**
+	 * The elements that are signed: "assertion" (default), "response", "both" or "none"
+	 */
+	private String sign = "assertion";
+	/**
+	 * The changes that are made to the Response
+	 */
+	private List<Mutation> mutations = new ArrayList<Mutation>();
+
+	/**
+	 * A single change to the Response, as it is described in a scenario file
+	 */
+	public static class Mutation {
+		/**
+		 * The type of change: "set", "remove" or "shift"
+		 */
+		private String op;
+		/**
+		 * The element or attribute that is changed, as a path of element names that ends with the element or with
+		 * "@" followed by the attribute name, e.g. "SubjectConfirmationData/@Recipient" or "Assertion/Signature"
+		 */
+		private String target;
+		/**
+		 * The new value of the element or attribute ("set" only)
+		 */
+		private String value;
+		/**
+		 * The ISO 8601 duration by which the time in the element or attribute is moved, e.g. "-PT1H" ("shift" only)
+		 */
+		private String by;
+		/**
+		 * Determines if the change is made after the Response has been signed, which invalidates the signature.
+		 * This is always the case for changes to Signature elements.
+		 */
+		private boolean afterSigning = false;
+	}
+
+	/**
+	 * Read the scenarios from the given scenario file and compile them.
+	 *
+	 * Scenarios that are not valid are logged and left out.
+	 *
+	 * @param file is the location of the scenario file
+	 * @return the compiled scenarios, in the order in which they are described in the file
+	 */
+	public static List<MutationPipeline> load(String file) {
+		ArrayList<MutationPipeline> pipelines = new ArrayList<MutationPipeline>();
+		ResponseScenario[] scenarios;
+		try {
+			scenarios = new GsonBuilder()
+					.create()
+					.fromJson(Files.newBufferedReader(Paths.get(file), Charset.defaultCharset()), ResponseScenario[].class);
+		} catch (JsonSyntaxException e) {
+			logger.error("The JSON syntax in the scenario file was invalid", e);
+			return pipelines;
+		} catch (JsonIOException e) {
+			logger.error("The scenario file could not be read", e);
+			return pipelines;
+		} catch (IOException e) {
+			logger.error("The scenario file could not be opened", e);
+			return pipelines;
+		}
+		if (scenarios == null) {
+			return pipelines;
+		}
+		HashSet<String> names = new HashSet<String>();
+		for (ResponseScenario scenario : scenarios) {
+			try {
+				MutationPipeline pipeline = scenario.compile();
+				if (!names.add(pipeline.getName())) {
+					throw new IllegalArgumentException("There is already a scenario with this name");
+				}
+				pipelines.add(pipeline);
+			} catch (IllegalArgumentException e) {
+				logger.error("The scenario " + scenario.name + " is not valid: " + e.getMessage());
+			}
+		}
+		logger.info("Loaded " + pipelines.size() + " scenario(s) from " + file);
+		return pipelines;
+	}
+
+	/**
+	 * Compile the scenario into a pipeline that can be applied to the minimal Web SSO Response
+	 *
+	 * @return the compiled scenario
+	 * @throws IllegalArgumentException if the scenario is not valid
+	 */
+	public MutationPipeline compile() {
+		if (name == null || name.isEmpty()) {
+			throw new IllegalArgumentException("The scenario has no name");
+		}
+		MutationPipeline.Signing signing;
+		try {
+			signing = MutationPipeline.Signing.valueOf(sign == null ? "ASSERTION" : sign.toUpperCase());
+		} catch (IllegalArgumentException e) {
+			throw new IllegalArgumentException("Unknown value for sign: " + sign);
+		}
+		ArrayList<ResponseMutation> beforeSigning = new ArrayList<ResponseMutation>();
+		ArrayList<ResponseMutation> afterSigning = new ArrayList<ResponseMutation>();
+		if (mutations != null) {
+			for (Mutation mutation : mutations) {
+				ResponseMutation compiled = ResponseMutation.compile(mutation.op, mutation.target, mutation.value, mutation.by);
+				if (mutation.afterSigning || compiled.targetsSignature()) {
+					afterSigning.add(compiled);
+				}
+				else {
+					beforeSigning.add(compiled);
+				}
+			}
+		}
+		return new MutationPipeline(name, description, mandatory, spInitiated, expectLogin, signing, beforeSigning, afterSigning);
+	}
+}
@@ -0,0 +1,106 @@
+package saml2webssotest.sp;
+
+import java.util.UUID;
+
+import org.joda.time.DateTime;
+import org.opensaml.Configuration;
+import org.opensaml.saml2.core.Assertion;
+import org.opensaml.saml2.core.AuthnStatement;
+import org.opensaml.saml2.core.Response;
+import org.opensaml.saml2.core.SubjectConfirmation;
+import org.opensaml.saml2.core.SubjectConfirmationData;
+import org.opensaml.xml.io.MarshallingException;
+import org.opensaml.xml.io.UnmarshallingException;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+/**
+ * A SAML Response that is used as the starting point for new SAML Responses.
+ *
+ * The template is converted to XML only once. Each new Response is a deep copy of that XML, so it
+ * does not have to be built again from the target SP configuration. The copy gets new IDs and its times
+ * are moved to the given issue instant, keeping the validity periods of the template. Each copy can be
+ * changed freely without affecting the template or the other copies.
+ *
+ * @author RiaasM
+ *
+ */
+public class ResponseTemplate {
+	/**
+	 * The document that contains the template Response
+	 */
+	private final Document template;
+	/**
+	 * The Issuer of the Assertion in the template, or null if it has none
+	 */
+	private final String issuer;
+
+	/**
+	 * Create a template from the given Response
+	 *
+	 * @param response is the Response that should be used as template, it should not be changed afterwards
+	 * @throws IllegalStateException if the Response could not be converted to XML
+	 */
+	public ResponseTemplate(Response response) {
+		try {
+			Element element = Configuration.getMarshallerFactory().getMarshaller(response).marshall(response);
+			template = element.getOwnerDocument();
+		} catch (MarshallingException e) {
+			throw new IllegalStateException("The Response template could not be converted to XML", e);
+		}
+		Assertion assertion = response.getAssertions().isEmpty() ? null : response.getAssertions().get(0);
+		issuer = (assertion == null || assertion.getIssuer() == null) ? null : assertion.getIssuer().getValue();
+	}
+
+	/**
+	 * @return the Issuer of the Assertion in the template, or null if it has none
+	 */
+	public String getIssuer() {
+		return issuer;
+	}
+
+	/**
+	 * Create a new Response from the template
+	 *
+	 * @param requestID is the ID of the AuthnRequest that the Response answers, or null if IdP-initiated
+	 * @param recipient is the URL of the AssertionConsumerService that is the Recipient of the Assertions
+	 * @param issueInstant is the time at which the Response appears to be created
+	 * @return a copy of the template with new IDs and times
+	 * @throws IllegalStateException if the copy could not be converted back from XML
+	 */
+	public Response newResponse(String requestID, String recipient, DateTime issueInstant) {
+		Document copy;
+		// the DOM implementation does not guarantee that a document can be read by several threads at the same time
+		synchronized (template) {
+			copy = (Document) template.cloneNode(true);
+		}
+		Element element = copy.getDocumentElement();
+		Response response;
+		try {
+			response = (Response) Configuration.getUnmarshallerFactory().getUnmarshaller(element).unmarshall(element);
+		} catch (UnmarshallingException e) {
+			throw new IllegalStateException("The copy of the Response template could not be converted from XML", e);
+		}
+		response.setID("_"+UUID.randomUUID().toString());
+		response.setIssueInstant(issueInstant);
+		response.setInResponseTo(requestID);
+		for (Assertion assertion : response.getAssertions()) {
+			// keep the times in the assertion relative to its issue instant
+			long shift = issueInstant.getMillis() - assertion.getIssueInstant().getMillis();
+			assertion.setID("_"+UUID.randomUUID().toString());
+			assertion.setIssueInstant(issueInstant);
+			for (SubjectConfirmation subConf : assertion.getSubject().getSubjectConfirmations()) {
+				SubjectConfirmationData subConfData = subConf.getSubjectConfirmationData();
+				if (subConfData.getNotOnOrAfter() != null) {
+					subConfData.setNotOnOrAfter(subConfData.getNotOnOrAfter().plus(shift));
+				}
+				subConfData.setRecipient(recipient);
+				subConfData.setInResponseTo(requestID);
+			}
+			for (AuthnStatement authnStatement : assertion.getAuthnStatements()) {
+				authnStatement.setAuthnInstant(issueInstant);
+			}
+		}
+		return response;
+	}
+}
@@ -0,0 +1,210 @@
+package saml2webssotest.sp;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import saml2webssotest.common.TestResult;
+
+/**
+ * Contains the state of a single test run.
+ *
+ * This holds the configuration of the target SP, the URL of the mock IdP and the messages exchanged with
+ * the mock IdP. The context is passed to the test suites, their test cases and the mock IdP, so several
+ * test runs (each with their own test runner and context) can be run side by side in the same JVM.
+ *
+ * @author RiaasM
+ *
+ */
+public class RunContext {
+	/**
+	 * The test runner that performs this test run
+	 */
+	private final SPTestRunner runner;
+	/**
+	 * Contains the SP configuration
+	 */
+	private volatile SPConfiguration spConfig;
+	/**
+	 * The URL on which the mock IdP for this test run is available
+	 */
+	private volatile URL mockServerURL;
+	/**
+	 * Contains the exchanges with the mock IdP, by their token
+	 */
+	private final ConcurrentHashMap<String, LoginExchange> exchanges = new ConcurrentHashMap<String, LoginExchange>();
+	/**
+	 * Contains the exchange with the mock IdP that is used by the current thread
+	 */
+	private final ThreadLocal<LoginExchange> workerExchange = new ThreadLocal<LoginExchange>() {
+		@Override
+		protected LoginExchange initialValue() {
+			LoginExchange exchange = new LoginExchange(UUID.randomUUID().toString());
+			exchanges.put(exchange.getToken(), exchange);
+			return exchange;
+		}
+	};
+	/**
+	 * Contains the exchange that the mock IdP uses when a browser does not identify its exchange
+	 */
+	private final LoginExchange defaultExchange;
+	/**
+	 * Contains the login attempts that are in progress, by AuthnRequest ID, RelayState and exchange token
+	 */
+	private final LoginCorrelationStore correlationStore = new LoginCorrelationStore();
+	/**
+	 * Collects the results of the current test run of the daemon, by test suite name, or null if the results
+	 * are reported to the test runner
+	 */
+	private LinkedHashMap<String, List<TestResult>> collectedResults = null;
+	/**
+	 * Analyzes the TLS connections to the endpoints of the target SP, for the test cases and the mock IdP
+	 */
+	private final TLSAnalyzer tlsAnalyzer = new TLSAnalyzer(TLSAnalyzer.DEFAULT_THREADS);
+
+	/**
+	 * Create the context for a new test run.
+	 *
+	 * The exchange of the thread that creates the context is used as the default exchange.
+	 *
+	 * @param runner is the test runner that performs the test run
+	 */
+	public RunContext(SPTestRunner runner) {
+		this.runner = runner;
+		defaultExchange = getExchange();
+	}
+
+	/**
+	 * Retrieve the exchange with the mock IdP that is used by the current thread
+	 *
+	 * @return the exchange for the current thread
+	 */
+	public LoginExchange getExchange() {
+		return workerExchange.get();
+	}
+
+	/**
+	 * Retrieve the exchange with the mock IdP that belongs to the given token
+	 *
+	 * This is used by the mock IdP to find the exchange for the login attempt it received.
+	 *
+	 * @param token is the token that was sent by the browser (may be null)
+	 * @return the exchange for the token, or the default exchange if the token is unknown
+	 */
+	public LoginExchange getExchange(String token) {
+		if (token != null) {
+			LoginExchange exchange = exchanges.get(token);
+			if (exchange != null) {
+				return exchange;
+			}
+		}
+		return defaultExchange;
+	}
+
+	/**
+	 * Detach the exchange from the current thread, without releasing it.
+	 *
+	 * The mock IdP can still find the exchange for login attempts from browsers that use it, until it is
+	 * released with {@link #releaseExchange(LoginExchange)}. The next test case on this thread gets a new exchange.
+	 *
+	 * @return the exchange that was used by the current thread
+	 */
+	public LoginExchange detachExchange() {
+		LoginExchange exchange = workerExchange.get();
+		if (exchange != defaultExchange) {
+			workerExchange.remove();
+		}
+		return exchange;
+	}
+
+	/**
+	 * Stop using the given exchange
+	 *
+	 * @param exchange is the exchange that is no longer used (may be null)
+	 */
+	public void releaseExchange(LoginExchange exchange) {
+		if (exchange != null && exchange != defaultExchange) {
+			exchanges.remove(exchange.getToken());
+		}
+	}
+
+	/**
+	 * Report the result of a test with the other results of the test runner, which is the only place where
+	 * the results are stored, or collect it for the current test run of the daemon.
+	 *
+	 * Results can be reported from several threads at the same time (e.g. by the mock IdP), so they are
+	 * reported one at a time.
+	 *
+	 * @param testsuiteName is the name of the test suite the test belongs to
+	 * @param result is the result of the test
+	 */
+	public synchronized void addTestResult(String testsuiteName, TestResult result) {
+		if (collectedResults != null) {
+			List<TestResult> suiteResults = collectedResults.get(testsuiteName);
+			if (suiteResults == null) {
+				suiteResults = new ArrayList<TestResult>();
+				collectedResults.put(testsuiteName, suiteResults);
+			}
+			suiteResults.add(result);
+		}
+		else {
+			runner.reportTestResult(testsuiteName, result);
+		}
+	}
+
+	/**
+	 * Collect the results instead of reporting them to the test runner, until they are taken with
+	 * {@link #takeCollectedResults()}.
+	 *
+	 * The daemon sends the results of each test run to its client, so they should not be kept by the test runner.
+	 */
+	public synchronized void collectResults() {
+		if (collectedResults == null) {
+			collectedResults = new LinkedHashMap<String, List<TestResult>>();
+		}
+	}
+
+	/**
+	 * Take the results that were collected since they were last taken, and keep collecting new results
+	 *
+	 * @return the collected results, by test suite name
+	 */
+	public synchronized Map<String, List<TestResult>> takeCollectedResults() {
+		if (collectedResults == null) {
+			return new LinkedHashMap<String, List<TestResult>>();
+		}
+		Map<String, List<TestResult>> taken = collectedResults;
+		collectedResults = new LinkedHashMap<String, List<TestResult>>();
+		return taken;
+	}
+
+	/*
+	 * Simple getters and setters
+	 */
+
+	public SPTestRunner getRunner() {
+		return runner;
+	}
+	public SPConfiguration getSPConfig() {
+		return spConfig;
+	}
+	public void setSPConfig(SPConfiguration spConfig) {
+		this.spConfig = spConfig;
+	}
+	public URL getMockServerURL() {
+		return mockServerURL;
+	}
+	public void setMockServerURL(URL mockServerURL) {
+		this.mockServerURL = mockServerURL;
+	}
+	public LoginCorrelationStore getCorrelationStore() {
+		return correlationStore;
+	}
+	public TLSAnalyzer getTLSAnalyzer() {
+		return tlsAnalyzer;
+	}
+}
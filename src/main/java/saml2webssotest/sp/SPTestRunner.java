@@ -1,13 +1,23 @@
 package saml2webssotest.sp;
 
+import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.lang.reflect.Modifier;
+import java.net.BindException;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -20,6 +30,10 @@ import org.apache.commons.cli.Options;
 import org.apache.commons.cli.ParseException;
 import org.apache.log4j.BasicConfigurator;
 import org.apache.log4j.PropertyConfigurator;
+import org.eclipse.jetty.server.Handler;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.server.handler.ContextHandler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.w3c.dom.Document;
@@ -38,14 +52,18 @@ import saml2webssotest.common.Interaction;
 import saml2webssotest.common.InteractionDeserializer;
 import saml2webssotest.common.MetadataDeserializer;
 import saml2webssotest.common.StringPair;
+import saml2webssotest.common.TestResult;
 import saml2webssotest.common.TestRunner;
+import saml2webssotest.common.TestSuite;
 import saml2webssotest.common.TestSuite.TestCase;
 import saml2webssotest.common.TestSuite.MetadataTestCase;
+import saml2webssotest.sp.mockIdPHandlers.InProcessConnection;
 import saml2webssotest.sp.mockIdPHandlers.SamlWebSSOHandler;
 import saml2webssotest.sp.testsuites.SPTestSuite;
 import saml2webssotest.sp.testsuites.SPTestSuite.ConfigTestCase;
 import saml2webssotest.sp.testsuites.SPTestSuite.LoginTestCase;
 import saml2webssotest.sp.testsuites.SPTestSuite.RequestTestCase;
+import saml2webssotest.sp.testsuites.SPTestSuite.TimedLoginTestCase;
 
 /**
  * This is the main class that is used to run the SP test. It will handle the
@@ -55,37 +73,107 @@ import saml2webssotest.sp.testsuites.SPTestSuite.RequestTestCase;
  * 
  */
 public class SPTestRunner extends TestRunner {
+	/**
+	 * The name of the HTTP header with which each browser identifies its exchange with the mock IdP
+	 */
+	public static final String HEADER_EXCHANGE = "X-SAML2WebSSOTest-Exchange";
+	/**
+	 * The name of the HTTP header with which a browser asks the mock IdP for the Response itself (see {@link AcsPost}), 
+	 * instead of a page that submits it to the ACS
+	 */
+	public static final String HEADER_DIRECT_POST = "X-SAML2WebSSOTest-DirectPost";
+	/**
+	 * The name under which the results of fuzzing the target SP are stored
+	 */
+	public static final String FUZZ_RESULTS = "Fuzzing";
+	/**
+	 * The number of idle browsers that are kept for reuse for each worker thread
+	 */
+	private static final int BROWSERS_PER_WORKER = 2;
+	/**
+	 * The time (in milliseconds) to wait for the certificate checks of the ACS endpoints when the mock server is killed
+	 */
+	private static final long ACS_PROBE_TIMEOUT = 30000;
+	/**
+	 * The test runner that was started from the command line
+	 */
 	private static SPTestRunner instance = null;
 	/**
 	 * Logger for this class
 	 */
 	private final Logger logger = LoggerFactory.getLogger(SPTestRunner.class);
 	/**
-	 * Contains the SP configuration
+	 * Contains the state of the test run that is performed by this test runner
+	 */
+	private final RunContext context;
+	/**
+	 * The handler that acts as the mock IdP, either behind the mock server or in-process
+	 */
+	private final SamlWebSSOHandler mockHandler;
+	/**
+	 * Contains the browsers that are reused by the test cases
+	 */
+	private final BrowserPool browserPool = new BrowserPool(BROWSERS_PER_WORKER);
+	/**
+	 * The number of worker threads on which test cases are run
+	 */
+	private int parallelism = 1;
+	/**
+	 * Determines if the test cases and the mock IdP are run on virtual threads
+	 */
+	private boolean virtualThreads = false;
+	/**
+	 * Determines if the clock skew of the target SP should be discovered before running the test cases
 	 */
-	private SPConfiguration spConfig;
+	private boolean discoverClockSkew = false;
 	/**
-	 * Contains the SAML Request that was retrieved by the mock IdP
+	 * The local port on which the daemon accepts test runs, or 0 if not running as a daemon
 	 */
-	private String samlRequest;
+	private int daemonPort = 0;
 	/**
-	 * Contains the SAML binding that was recognized by the mock IdP
+	 * The number of fuzzed Responses that are sent to the target SP, or 0 if the target SP is not fuzzed
 	 */
-	private String samlRequestBinding;
+	private int fuzzVariants = 0;
 	/**
-	 * Contains the SAML Response that should be sent by the mock IdP
+	 * The seed that determines which fuzzed Responses are sent, or null to use the current time
 	 */
-	private String samlResponse;
+	private Long fuzzSeed = null;
 	/**
-	 * Determines if the test runner is allowed to update signatures on SAML Response elements
-	 * (true by default, but might need to be disabled if you wish to test with invalid signatures)
+	 * The kind of login attempts ("sp" or "idp") with which load is generated on the target SP, or null if no load is generated
 	 */
-	private boolean sigUpdateResponseAllowed = true;
+	private String load = null;
 	/**
-	 * Determines if the test runner is allowed to update signatures on SAML Response elements
-	 * (true by default, but might need to be disabled if you wish to test with invalid signatures)
+	 * The number of login attempts per second that are started when generating load
 	 */
-	private boolean sigUpdateAssertionAllowed = true;
+	private double loadRate = 1;
+	/**
+	 * The time (in seconds) during which load is generated
+	 */
+	private int loadDuration = 60;
+	/**
+	 * The name of the histogram log to which the login latencies of the load run are written, or null if they are not written
+	 */
+	private String histogramLog = null;
+	/**
+	 * The names of the histogram logs that should be merged, or null if no histogram logs are merged
+	 */
+	private List<String> mergeHistogramLogs = null;
+	/**
+	 * The compiled login scenarios that are added to the test cases of the test suite
+	 */
+	private List<MutationPipeline> scenarios = Collections.emptyList();
+	/**
+	 * Determines if the test runner POSTs the Responses of the mock IdP to the ACS itself
+	 */
+	private boolean directPost = false;
+	/**
+	 * Determines if the browsers reach the mock IdP in-process, instead of through the mock server
+	 */
+	private boolean inProcess = false;
+	/**
+	 * The local ports on which the mock server may be started, or null to use the port of the test suite's mock IdP URL
+	 */
+	private PortRange mockPorts = null;
 	/**
 	 * Contains the command-line options
 	 */
@@ -96,7 +184,17 @@ public class SPTestRunner extends TestRunner {
 	 */
 	private String testSuitesPackage = "testsuites";
 
-	private SPTestRunner(String[] args) {
+	/**
+	 * Create a test runner for a single test run, configured with the given command-line arguments.
+	 * 
+	 * Each test runner has its own context (see {@link RunContext}), so several test runners can 
+	 * run side by side in the same JVM, as long as their mock IdPs use different URLs.
+	 * 
+	 * @param args are the command-line arguments
+	 */
+	public SPTestRunner(String[] args) {
+		context = new RunContext(this);
+		mockHandler = new SamlWebSSOHandler(context);
 		// initialize logging with properties file if it exists, basic config otherwise
 		if (Files.exists(Paths.get(logFile))) {
 			PropertyConfigurator.configure(logFile);
@@ -109,14 +207,29 @@ public class SPTestRunner extends TestRunner {
 			// define the command-line options
 			Options options = new Options();
 			options.addOption("h", "help", false, "Print this help message");
+			options.addOption("g", "load", true,"Generate load on the target SP with SP-initiated (\"sp\") or IdP-initiated (\"idp\") logins on the worker threads, instead of running the test cases of the test suite");
+			options.addOption("R", "rate", true,"The number of login attempts per second that are started when generating load (default: 1)");
+			options.addOption("D", "duration", true,"The number of seconds during which load is generated (default: 60)");
+			options.addOption("H", "histogramLog", true,"The file to which the login latencies of each phase are written as a histogram log when generating load");
+			options.addOption("M", "mergeHistogramLogs", true,"Merge the given comma-separated histogram logs from several load runs and report the combined latencies, instead of running the test cases of the test suite");
+			options.addOption("f", "fuzz", true,"Send the given number of fuzzed Responses to the target SP on the worker threads, instead of running the test cases of the test suite");
+			options.addOption("F", "fuzzSeed", true,"The seed that determines which fuzzed Responses are sent, so a fuzzing run can be repeated (default: the current time)");
 			options.addOption("c", "config", true,"The name of the properties file containing the configuration of the target SAML entity");
+			options.addOption("d", "daemon", true,"Keep running as a daemon that accepts test runs on the given local port, instead of running a test suite once");
 			options.addOption("e", "showEmbedded", false, "Show test results for tests that are performed within the testing framework");
+			options.addOption("i", "inProcess", false,"Let the browsers reach the mock IdP in-process, without starting the mock server on the URL of the mock IdP");
 			options.addOption("l", "listTestcases", false,"List all the test cases");
 			options.addOption("L", "listTestsuites", false,"List all the test suites");
 			options.addOption("m", "metadata", false,"Display the mock SAML entity's metadata");
+			options.addOption("P", "directPost", false,"POST the Responses of the mock IdP to the ACS directly, instead of loading the mock IdP's page that submits them with JavaScript (only used when there are no pre-login interactions)");
+			options.addOption("o", "mockPorts", true,"The local port, range of ports (e.g. 8080-8099) or ephemeral port (0) on which the mock IdP is started, instead of the port of the mock IdP's default URL. The first free port in the range is used");
+			options.addOption("p", "parallel", true,"The number of worker threads on which independent test cases are run (default: 1)");
+			options.addOption("S", "scenarios", true,"The JSON file with login scenarios that are run as additional test cases of the test suite");
+			options.addOption("s", "discoverClockSkew", false,"Discover the clock skew that the target SP allows and use it instead of the configured clock skew");
 			options.addOption("r", "recursive", false,"Run the test suites that your test suite depends on as well (ignored if \"-t, --testcase\" is used)");
 			options.addOption("T", "testsuite", true,"Specifies the test suite from which you wish to run a test case");
 			options.addOption("t","testcase",true,"The name of the test case you wish to run. If omitted, all test cases from the test suite are run");
+			options.addOption("v", "virtual", false,"Run each test case and each request to the mock IdP on its own virtual thread (ignores \"-p, --parallel\")");
 
 			// parse the command line arguments
 			command = new BasicParser().parse(options, args);
@@ -133,6 +246,85 @@ public class SPTestRunner extends TestRunner {
 				System.exit(0);
 			}
 
+			// load target SP config
+			if (command.hasOption("config")) {
+				loadConfig(command.getOptionValue("config"));
+			}
+
+			// load the login scenarios
+			if (command.hasOption("scenarios")) {
+				scenarios = ResponseScenario.load(command.getOptionValue("scenarios"));
+			}
+
+			// store setting for running test cases in parallel
+			if (command.hasOption("parallel")){
+				parallelism = Integer.parseInt(command.getOptionValue("parallel"));
+				browserPool.setCapacity(parallelism * BROWSERS_PER_WORKER);
+			}
+			
+			// store setting for POSTing the Responses to the ACS directly
+			if (command.hasOption("directPost")){
+				directPost = true;
+			}
+			else{
+				directPost = false;
+			}
+			
+			// store setting for the ports of the mock IdP
+			if (command.hasOption("mockPorts")){
+				mockPorts = PortRange.parse(command.getOptionValue("mockPorts"));
+			}
+			
+			// store setting for reaching the mock IdP in-process
+			if (command.hasOption("inProcess")){
+				inProcess = true;
+			}
+			else{
+				inProcess = false;
+			}
+			
+			// store setting for running test cases on virtual threads
+			if (command.hasOption("virtual")){
+				virtualThreads = true;
+			}
+			else{
+				virtualThreads = false;
+			}
+			
+			// store setting for fuzzing the target SP
+			if (command.hasOption("fuzz")){
+				fuzzVariants = Integer.parseInt(command.getOptionValue("fuzz"));
+			}
+			if (command.hasOption("fuzzSeed")){
+				fuzzSeed = Long.valueOf(command.getOptionValue("fuzzSeed"));
+			}
+			
+			// store settings for generating load on the target SP
+			if (command.hasOption("load")){
+				load = command.getOptionValue("load").toLowerCase();
+				if (!load.equals("sp") && !load.equals("idp")){
+					logger.error("The kind of login attempts for generating load should be \"sp\" or \"idp\"");
+					load = null;
+				}
+			}
+			if (command.hasOption("rate")){
+				loadRate = Double.parseDouble(command.getOptionValue("rate"));
+			}
+			if (command.hasOption("duration")){
+				loadDuration = Integer.parseInt(command.getOptionValue("duration"));
+			}
+			if (command.hasOption("histogramLog")){
+				histogramLog = command.getOptionValue("histogramLog");
+			}
+			if (command.hasOption("mergeHistogramLogs")){
+				mergeHistogramLogs = Arrays.asList(command.getOptionValue("mergeHistogramLogs").split(","));
+			}
+			
+			// store setting for running as a daemon
+			if (command.hasOption("daemon")){
+				daemonPort = Integer.parseInt(command.getOptionValue("daemon"));
+			}
+
 			if (command.hasOption("testsuite")) {
 				// load the test suite
 				String ts_string = command.getOptionValue("testsuite");
@@ -140,6 +332,7 @@ public class SPTestRunner extends TestRunner {
 				Object testsuiteObj = ts_class.newInstance();
 				if (testsuiteObj instanceof SPTestSuite) {
 					testsuite = (SPTestSuite) testsuiteObj;
+					((SPTestSuite) testsuiteObj).setContext(context);
 
 					// list the test cases, if necessary
 					if (command.hasOption("listTestcases")) {
@@ -149,6 +342,10 @@ public class SPTestRunner extends TestRunner {
 
 					// show mock IdP metadata
 					if (command.hasOption("metadata")) {
+						// the metadata can only contain the URL of the mock IdP if its port is known in advance
+						if (mockPorts != null && mockPorts.isSinglePort() && !mockPorts.isEphemeral()) {
+							context.setMockServerURL(withPort(testsuite.getMockServerURL(), mockPorts.getFirst()));
+						}
 						outputMockedMetadata(testsuite);
 						System.exit(0);
 					}
@@ -169,13 +366,16 @@ public class SPTestRunner extends TestRunner {
 						showEmbedded = false;
 					}
 
-					// load target SP config
-					if (command.hasOption("config")) {
-						loadConfig(command.getOptionValue("config"));
-					}
-
 					// load the requested test case(s)
 					testcaseName = command.getOptionValue("testcase");
+					
+					// store setting for discovering the clock skew of the target SP
+					if (command.hasOption("discoverClockSkew")){
+						discoverClockSkew = true;
+					}
+					else{
+						discoverClockSkew = false;
+					}
 
 				} else {
 					logger.error("Provided class was not a TestSuite");
@@ -193,20 +393,53 @@ public class SPTestRunner extends TestRunner {
 			logger.error("The Test Suite could not be accessed", e);
 		} catch (ParseException e) {
 			logger.error("The command-line arguments could not be parsed correctly", e);
+		} catch (NumberFormatException e) {
+			logger.error("The number of worker threads, the daemon port, the number of fuzzed Responses, the fuzz seed, the load rate and duration and the mock IdP ports should be numbers", e);
 		}
 	}
 
 	public static void main(String[] args) {
-		if (instance == null){
-			instance = new SPTestRunner(args);
+		instance = new SPTestRunner(args);
+		if (instance.daemonPort > 0){
+			instance.runDaemon(instance.daemonPort);
+			return;
+		}
+		if (instance.discoverClockSkew){
+			instance.discoverClockSkew();
+		}
+		if (instance.fuzzVariants > 0){
+			instance.runFuzzer(instance.fuzzVariants);
+			instance.outputTestResults();
+			return;
+		}
+		if (instance.mergeHistogramLogs != null){
+			instance.mergeHistogramLogs(instance.mergeHistogramLogs);
+			instance.outputTestResults();
+			return;
+		}
+		if (instance.load != null){
+			instance.runLoad(instance.load.equals("sp"));
+			instance.outputTestResults();
+			return;
+		}
+		// the login scenarios are only reported with their own name when run in parallel
+		if (instance.parallelism > 1 || instance.virtualThreads || instance.recursive || !instance.scenarios.isEmpty()){
+			instance.runTestSuiteParallel(instance.getMainTestSuite());
 		}
 		else{
-			System.out.println("SPTestRunner is already running, only one instance can be running at the same time");
+			instance.runTestSuite(instance.getMainTestSuite());
 		}
-		instance.runTestSuite(instance.getMainTestSuite());
 		instance.outputTestResults();
 	}
 	
+	/**
+	 * Retrieve the test runner that was started from the command line
+	 * 
+	 * @return the test runner that was started from the command line
+	 * @deprecated test suites, test cases and the mock IdP should use the test runner from their own
+	 * {@link RunContext}, since several test runners can be running in the same JVM
+	 */
+	@Deprecated
 	public static SPTestRunner getInstance(){
 		if (instance == null){
 			throw new IllegalStateException("The SPTestRunner instance has not been created yet");
@@ -216,23 +449,102 @@ public class SPTestRunner extends TestRunner {
 	
 	/**
 	 * Create the mock server, set its handlers and start the server
+	 * 
+	 * The mock server is started on the first free port of the configured ports (see "-o, --mockPorts"), or 
+	 * on the port of the test suite's mock IdP URL if no ports are configured. The URL on which it was 
+	 * started is stored in the context, so it is used in the metadata and Responses of the mock IdP.
 	 */
 	@Override
 	public void initMockServer() {
-		mockServer = newMockServer(testsuite.getMockServerURL(), new SamlWebSSOHandler());
-		// start the mock IdP
+		URL baseURL = testsuite.getMockServerURL();
+		resetEndpointAnalyses();
+		if (inProcess){
+			// no port is bound, so an ephemeral port is not needed
+			int port = (mockPorts == null || mockPorts.isEphemeral()) ? baseURL.getPort() : mockPorts.getFirst();
+			context.setMockServerURL(withPort(baseURL, port));
+			// the browsers pass their requests for the mock IdP to the handler directly (see getNewBrowser())
+			logger.debug("The mock IdP is reached in-process on " + context.getMockServerURL());
+			return;
+		}
+		int first = (mockPorts == null) ? baseURL.getPort() : mockPorts.getFirst();
+		int last = (mockPorts == null) ? baseURL.getPort() : mockPorts.getLast();
+		for (int port = first; port <= last; port++) {
+			URL url = withPort(baseURL, port);
+			if (virtualThreads){
+				mockServer = newVirtualThreadMockServer(url, mockHandler);
+			}
+			else{
+				mockServer = newMockServer(url, mockHandler);
+			}
+			// start the mock IdP
+			try {
+				mockServer.start();
+			} catch (Exception e) {
+				killMockServer();
+				if (isBindFailure(e) && port < last) {
+					logger.debug("The port " + port + " is already in use, trying the next port");
+					continue;
+				}
+				logger.error("Could not start the mock server", e);
+				return;
+			}
+			// use the port that was actually bound, which differs from the requested port for an ephemeral port
+			int localPort = ((ServerConnector) mockServer.getConnectors()[0]).getLocalPort();
+			context.setMockServerURL(withPort(baseURL, localPort));
+			logger.info("The mock IdP is listening on " + context.getMockServerURL());
+			return;
+		}
+	}
+
+	/**
+	 * Check if the mock server could not be started because its port was already in use
+	 */
+	private boolean isBindFailure(Throwable e) {
+		for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+			if (cause instanceof BindException) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Create a copy of the URL with a different port
+	 */
+	private URL withPort(URL url, int port) {
 		try {
-			mockServer.start();
-		} catch (Exception e) {
-			logger.error("Could not start the mock server", e);
-		}		
+			return new URL(url.getProtocol(), url.getHost(), port, url.getFile());
+		} catch (MalformedURLException e) {
+			throw new IllegalStateException("The URL of the mock IdP can not use port " + port, e);
+		}
 	}
 	
+	/**
+	 * Create a mock server that handles each request on its own virtual thread
+	 * 
+	 * @param url is the URL on which the mock server should listen
+	 * @param handler is the handler for the requests to the mock server
+	 * @return the mock server, which has not been started yet
+	 */
+	private Server newVirtualThreadMockServer(URL url, Handler handler) {
+		Server server = new Server(new VirtualThreadPool());
+		ServerConnector connector = new ServerConnector(server);
+		connector.setHost(url.getHost());
+		connector.setPort(url.getPort());
+		server.addConnector(connector);
+		ContextHandler context = new ContextHandler(url.getPath());
+		context.setHandler(handler);
+		server.setHandler(context);
+		return server;
+	}
+
 	/**
 	 * Kill the mock server
 	 */
 	@Override
 	public void killMockServer() {
+		// the results of the ACS certificate checks should be stored before the results are reported
+		mockHandler.awaitACSProbes(ACS_PROBE_TIMEOUT);
 		// start the mock IdP
 		try {
 			if (mockServer != null && mockServer.isStarted()) {
@@ -244,16 +556,360 @@ public class SPTestRunner extends TestRunner {
 		
 	}
 
+	/**
+	 * Discover the clock skew that the target SP allows and use it for the time-dependent test cases.
+	 * 
+	 * The configured clock skew is kept if the clock skew could not be discovered.
+	 */
+	public void discoverClockSkew() {
+		initMockServer();
+		try {
+			long clockSkew = new ClockSkewProbe(this, (SPTestSuite) testsuite, parallelism).discover();
+			if (clockSkew >= 0) {
+				logger.info("Using the discovered clock skew of " + clockSkew + " ms instead of the configured " + getSPConfig().getClockSkew() + " ms");
+				getSPConfig().setClockSkew((int) clockSkew);
+			}
+		} finally {
+			killMockServer();
+		}
+	}
+
+	/**
+	 * Run the test suite with its test cases divided over the worker threads.
+	 * 
+	 * The test suites that the test suite depends on are run as well, if requested. Each of these test suites
+	 * is run only once, as soon as its own dependencies have finished (see {@link TestSuiteScheduler}).
+	 * The results are stored in the same order as the test cases were loaded.
+	 * 
+	 * @param suite is the test suite that should be run
+	 */
+	public void runTestSuiteParallel(TestSuite suite) {
+		TestCaseExecutor executor = newTestCaseExecutor();
+		initMockServer();
+		try {
+			// only run the dependencies if all test cases are run
+			Map<String, List<TestResult>> results = new TestSuiteScheduler(executor).run(this, suite, recursive && testcaseName == null);
+			for (Map.Entry<String, List<TestResult>> suiteResults : results.entrySet()) {
+				for (TestResult result : suiteResults.getValue()) {
+					context.addTestResult(suiteResults.getKey(), result);
+				}
+			}
+		} finally {
+			killMockServer();
+			executor.shutdown();
+			browserPool.close();
+		}
+	}
+
+	/**
+	 * Send fuzzed Responses to the target SP (see {@link ResponseFuzzer}) and store a result for each distinct outcome.
+	 * 
+	 * The Responses are sent on a fixed number of worker threads (see "-p, --parallel"), since each worker 
+	 * thread reuses its own browser.
+	 * 
+	 * @param variants is the number of fuzzed Responses that should be sent
+	 */
+	public void runFuzzer(int variants) {
+		ExecutorService workers = Executors.newFixedThreadPool(parallelism);
+		initMockServer();
+		try {
+			for (TestResult result : fuzz(variants, fuzzSeed, workers)) {
+				context.addTestResult(FUZZ_RESULTS, result);
+			}
+		} finally {
+			killMockServer();
+			workers.shutdown();
+			browserPool.close();
+		}
+	}
+
+	/**
+	 * Send fuzzed Responses to the target SP of the current test suite
+	 * 
+	 * @param variants is the number of fuzzed Responses that should be sent
+	 * @param seed determines which fuzzed Responses are sent, or null to use the current time
+	 * @param workers are the worker threads on which the fuzzed Responses are sent
+	 * @return a result for each distinct outcome
+	 */
+	private List<TestResult> fuzz(int variants, Long seed, ExecutorService workers) {
+		// the fuzzer logs the seed, so a fuzzing run with the current time can be repeated as well
+		long usedSeed = (seed == null) ? System.currentTimeMillis() : seed;
+		return new ResponseFuzzer((SPTestSuite) testsuite, usedSeed).run(this, variants, workers);
+	}
+
+	/**
+	 * Generate load on the target SP (see {@link LoadGenerator}) and store the throughput and the statistics of each
+	 * phase of the login attempts.
+	 * 
+	 * The login attempts are made on a fixed number of worker threads (see "-p, --parallel"), so the requested
+	 * rate can only be reached if enough of them are available.
+	 * 
+	 * @param spInitiated determines whether the login attempts are SP-initiated or IdP-initiated
+	 */
+	public void runLoad(boolean spInitiated) {
+		if (loadRate <= 0 || loadDuration <= 0){
+			logger.error("The load rate and duration should be positive");
+			return;
+		}
+		initMockServer();
+		try {
+			LoadGenerator generator = new LoadGenerator(this, (SPTestSuite) testsuite, loadRate, loadDuration * 1000L, spInitiated, parallelism);
+			for (TestResult result : generator.run()) {
+				context.addTestResult(LoadGenerator.LOAD_RESULTS, result);
+			}
+			if (histogramLog != null){
+				generator.getRecorder().writeLog(histogramLog);
+			}
+		} catch (FileNotFoundException e) {
+			logger.error("The histogram log could not be written", e);
+		} finally {
+			killMockServer();
+			browserPool.close();
+		}
+	}
+
+	/**
+	 * Merge the histogram logs of several load runs (see "-H, --histogramLog") and store the combined 
+	 * latencies of each phase.
+	 * 
+	 * @param files are the names of the histogram logs
+	 */
+	public void mergeHistogramLogs(List<String> files) {
+		try {
+			for (TestResult result : LatencyRecorder.merge(files).getResults()) {
+				context.addTestResult(LoadGenerator.LOAD_RESULTS, result);
+			}
+		} catch (FileNotFoundException e) {
+			logger.error("The histogram log could not be found", e);
+		}
+	}
+
+	/**
+	 * Create the executor on which the test cases are run, according to the command-line options
+	 * 
+	 * @return the executor for the test cases
+	 */
+	private TestCaseExecutor newTestCaseExecutor() {
+		if (virtualThreads){
+			return new TestCaseExecutor(VirtualThreadPool.newExecutor());
+		}
+		else{
+			return new TestCaseExecutor(parallelism);
+		}
+	}
+
+	/**
+	 * Keep running as a daemon that accepts test runs on a local HTTP endpoint (see {@link DaemonServer}).
+	 * 
+	 * The mock IdP and the worker threads are kept running between test runs, so only the 
+	 * first test run has to wait for them to start.
+	 * 
+	 * @param port is the local port on which the daemon should listen
+	 */
+	public void runDaemon(int port) {
+		final TestCaseExecutor executor = newTestCaseExecutor();
+		final DaemonServer daemon = new DaemonServer(this, executor);
+		// the results are sent to the client of each test run, instead of being kept until the daemon stops
+		context.collectResults();
+		try {
+			daemon.start(port);
+		} catch (IOException e) {
+			logger.error("Could not start the daemon on port " + port, e);
+			executor.shutdown();
+			return;
+		}
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+			@Override
+			public void run() {
+				daemon.stop();
+				killMockServer();
+				executor.shutdown();
+				browserPool.close();
+			}
+		});
+	}
+
+	/**
+	 * Run a test suite that was requested from the daemon.
+	 * 
+	 * The test runs of the daemon are handled one at a time, so they can share the settings of this test runner.
+	 * 
+	 * @param suite is the test suite that should be run
+	 * @param testcase is the name of the test case that should be run, or null to run all test cases
+	 * @param runDependencies determines if the test suites that the test suite depends on should be run as well
+	 * @param executor is the executor on which the test cases are run
+	 * @param listener is notified of the results of each test suite as soon as it has finished
+	 */
+	void runDaemonRequest(SPTestSuite suite, String testcase, boolean runDependencies, TestCaseExecutor executor, TestSuiteScheduler.Listener listener) {
+		startDaemonRun(suite);
+		testcaseName = testcase;
+		try {
+			new TestSuiteScheduler(executor).run(this, suite, runDependencies && testcase == null, listener);
+		} finally {
+			finishDaemonRun(listener);
+		}
+	}
+
+	/**
+	 * Send fuzzed Responses to the target SP of a test suite that was requested from the daemon.
+	 * 
+	 * The fuzzed Responses are sent on their own worker threads (see "-p, --parallel"), since each worker 
+	 * thread reuses its own browser.
+	 * 
+	 * @param suite is the test suite that provides the minimal Web SSO Response and the mock IdP
+	 * @param variants is the number of fuzzed Responses that should be sent
+	 * @param seed determines which fuzzed Responses are sent, or null to use the seed of the command line or the current time
+	 * @param listener is notified of the results of fuzzing the target SP
+	 */
+	void runDaemonFuzzer(SPTestSuite suite, int variants, Long seed, TestSuiteScheduler.Listener listener) {
+		startDaemonRun(suite);
+		suite.setContext(context);
+		ExecutorService workers = Executors.newFixedThreadPool(parallelism);
+		try {
+			listener.suiteFinished(FUZZ_RESULTS, fuzz(variants, (seed == null) ? fuzzSeed : seed, workers));
+		} finally {
+			workers.shutdown();
+			finishDaemonRun(listener);
+		}
+	}
+
+	/**
+	 * Make the given test suite the current test suite for a test run of the daemon
+	 * 
+	 * @param suite is the requested test suite
+	 */
+	private void startDaemonRun(SPTestSuite suite) {
+		// the results that the mock IdP stored between test runs do not belong to this test run
+		for (Map.Entry<String, List<TestResult>> stale : context.takeCollectedResults().entrySet()) {
+			logger.debug("Discarding " + stale.getValue().size() + " result(s) of testsuite " + stale.getKey() + " that were stored between test runs");
+		}
+		URL previousURL = (testsuite == null) ? null : testsuite.getMockServerURL();
+		testsuite = suite;
+		// keep the mock IdP running, unless the test suite uses a different mock IdP (the in-process mock IdP is never running)
+		if (inProcess || mockServer == null || !mockServer.isStarted() || !suite.getMockServerURL().equals(previousURL)) {
+			killMockServer();
+			initMockServer();
+		}
+		else{
+			// the configuration or the target SP may have changed since the previous test run
+			resetEndpointAnalyses();
+		}
+	}
+
+	/**
+	 * Forget the ACS probes and TLS analyses of the previous test run and start analyzing the endpoints of the 
+	 * target SP again, so the endpoints are analyzed once per test run, all at the same time
+	 */
+	private void resetEndpointAnalyses() {
+		mockHandler.resetACSProbes();
+		context.getTLSAnalyzer().clear();
+		if (getSPConfig() != null){
+			context.getTLSAnalyzer().analyzeMetadata(getSPConfig().getMetadata());
+		}
+	}
+
+	/**
+	 * Send the results that the mock IdP stored during a test run of the daemon (e.g. for the SAMLBind test suite) 
+	 * to the client, after the results of the test suites themselves
+	 * 
+	 * @param listener is notified of the stored results of each test suite
+	 */
+	private void finishDaemonRun(TestSuiteScheduler.Listener listener) {
+		for (Map.Entry<String, List<TestResult>> stored : context.takeCollectedResults().entrySet()) {
+			listener.suiteFinished(stored.getKey(), stored.getValue());
+		}
+	}
+
+	/**
+	 * Create an instance of the test suite with the given name
+	 * 
+	 * @param name is the name of the test suite
+	 * @return the test suite
+	 * @throws ReflectiveOperationException if the test suite could not be found or created
+	 * @throws ClassCastException if the class is not an SPTestSuite
+	 */
+	SPTestSuite newTestSuite(String name) throws ReflectiveOperationException {
+		Class<?> tsClass = Class.forName(SPTestRunner.class.getPackage().getName() + "." + testSuitesPackage + "." + name);
+		return (SPTestSuite) tsClass.newInstance();
+	}
+
+	/**
+	 * Create an instance of each test case in the test suite, or only of the requested test case
+	 * 
+	 * @param suite is the test suite that contains the test cases
+	 * @return the test cases, ordered by name
+	 */
+	List<TestCase> loadTestCases(TestSuite suite) {
+		// test suites that were created as a dependency of another test suite do not have a context yet
+		if (suite instanceof SPTestSuite) {
+			((SPTestSuite) suite).setContext(context);
+		}
+		ArrayList<TestCase> testcases = new ArrayList<TestCase>();
+		for (Class<?> tcClass : suite.getClass().getDeclaredClasses()) {
+			if (!TestCase.class.isAssignableFrom(tcClass) || tcClass.isInterface() || Modifier.isAbstract(tcClass.getModifiers())) {
+				continue;
+			}
+			if (testcaseName != null && !testcaseName.equals(tcClass.getSimpleName())) {
+				continue;
+			}
+			try {
+				testcases.add((TestCase) tcClass.getConstructor(suite.getClass()).newInstance(suite));
+			} catch (ReflectiveOperationException e) {
+				logger.error("Could not create an instance of the test case " + tcClass.getSimpleName(), e);
+			}
+		}
+		// the login scenarios only belong to the test suite that was requested, not to its dependencies
+		if (suite == testsuite) {
+			for (MutationPipeline scenario : scenarios) {
+				if (testcaseName == null || testcaseName.equals(scenario.getName())) {
+					testcases.add(new ScenarioTestCase((SPTestSuite) suite, scenario));
+				}
+			}
+		}
+		Collections.sort(testcases, new Comparator<TestCase>() {
+			@Override
+			public int compare(TestCase tc1, TestCase tc2) {
+				return getTestCaseName(tc1).compareTo(getTestCaseName(tc2));
+			}
+		});
+		return testcases;
+	}
+
+	/**
+	 * Retrieve the name with which the test case is reported
+	 * 
+	 * @param testcase is the test case
+	 * @return the name of the scenario for login scenarios, the name of the test case class otherwise
+	 */
+	static String getTestCaseName(TestCase testcase) {
+		if (testcase instanceof ScenarioTestCase) {
+			return ((ScenarioTestCase) testcase).getName();
+		}
+		return testcase.getClass().getSimpleName();
+	}
+
 	@Override
 	public void loadConfig(String file){
+		tryLoadConfig(file);
+	}
+
+	/**
+	 * Load the configuration of the target SP, keeping the current configuration if it could not be loaded
+	 * 
+	 * @param file is the name of the JSON configuration file, or null or empty to use an empty configuration
+	 * @return true if the configuration was loaded, false if it could not be read or parsed
+	 */
+	boolean tryLoadConfig(String file){
 		if (file != null && !file.isEmpty()) {
 			try {
-				spConfig = new GsonBuilder()
+				SPConfiguration spConfig = new GsonBuilder()
 						.registerTypeAdapter(Document.class, new MetadataDeserializer())
 						.registerTypeAdapter(Interaction.class, new InteractionDeserializer())
 						.create()
-						.fromJson(Files.newBufferedReader(Paths.get(command.getOptionValue("config")), Charset.defaultCharset()),
+						.fromJson(Files.newBufferedReader(Paths.get(file), Charset.defaultCharset()),
 								SPConfiguration.class);
+				context.setSPConfig(spConfig);
+				return true;
 			} catch (JsonSyntaxException e) {
 				logger.error("The JSON syntax in the configuration was invalid", e);
 			} catch (JsonIOException e) {
@@ -261,9 +917,11 @@ public class SPTestRunner extends TestRunner {
 			} catch (IOException e) {
 				logger.error("The target configuration could be opened", e);
 			}
+			return false;
 		} else {
 			// use empty SP configuration
-			spConfig = new SPConfiguration();
+			context.setSPConfig(new SPConfiguration());
+			return true;
 		}
 	}
 
@@ -279,7 +937,18 @@ public class SPTestRunner extends TestRunner {
 	 */
 	@Override
 	public boolean runTest(TestCase testcase) {
-		logger.info("Running testcase: "+ testcase.getClass().getSimpleName());
+		try {
+			return runTestCase(testcase);
+		} finally {
+			// the next test case on this thread can reuse the browsers of this test case
+			releaseBrowsers();
+		}
+	}
+
+	private boolean runTestCase(TestCase testcase) {
+		logger.info("Running testcase: "+ getTestCaseName(testcase));
+		// make sure the mock IdP answers this test case's login attempts, even if a previous test case disabled it
+		getExchange().setMockIdPAvailable(true);
 		
 		// run the test case according to what type of test case it is
 		if (testcase instanceof ConfigTestCase) {
@@ -288,11 +957,11 @@ public class SPTestRunner extends TestRunner {
 			 * Check the SP's metadata according to the specifications of the
 			 * test case and return the status of the test
 			 */
-			return cfTestcase.checkConfig(spConfig);
+			return cfTestcase.checkConfig(getSPConfig());
 		}
 		else if (testcase instanceof MetadataTestCase) {
 			// Retrieve the SP Metadata from target SP configuration
-			Document metadata = spConfig.getMetadata();
+			Document metadata = getSPConfig().getMetadata();
 			MetadataTestCase mdTestcase = (MetadataTestCase) testcase;
 			/**
 			 * Check the SP's metadata according to the specifications of the
@@ -301,13 +970,16 @@ public class SPTestRunner extends TestRunner {
 			return mdTestcase.checkMetadata(metadata);
 		} else if (testcase instanceof RequestTestCase) {
 			RequestTestCase reqTC = (RequestTestCase) testcase;
-			// make the SP send the AuthnRequest by starting an SP-initiated login attempt
+			// make the SP send the AuthnRequest by starting an SP-initiated login attempt, for which the mock IdP 
+			// only stores the AuthnRequest
+			setSamlResponse(null);
 			try {
 				WebClient browser = getNewBrowser();
 				attemptLogin(browser, true);
-				browser = getNewBrowser();
 				
-				//TestRunnerUtil.interactWithPage(browser.getPage(spConfig.getStartPage()), spConfig.getPreLoginInteractions());
+				//TestRunnerUtil.interactWithPage(browser.getPage(getSPConfig().getStartPage()), getSPConfig().getPreLoginInteractions());
+				LoginAttempt attempt = context.getCorrelationStore().getLatest(getExchange().getToken());
+				String samlRequest = attempt == null ? null : attempt.getSamlRequest();
 				if (samlRequest != null && !samlRequest.isEmpty()) {
 					logger.debug("Testing the AuthnRequest");
 					logger.trace(samlRequest);
@@ -315,7 +987,7 @@ public class SPTestRunner extends TestRunner {
 					 * Check the SAML Request according to the specifications of the
 					 * test case and return the status of the test
 					 */
-					boolean requestResult = reqTC.checkRequest(samlRequest,samlRequestBinding);
+					boolean requestResult = reqTC.checkRequest(samlRequest, attempt.getSamlRequestBinding());
 					
 					return requestResult;
 				} else {
@@ -326,6 +998,23 @@ public class SPTestRunner extends TestRunner {
 				logger.error("The start page returned a failing HTTP status code", e);
 				return false;
 			}
+		} else if (testcase instanceof TimedLoginTestCase) {
+			TimedLoginTestCase timedTC = (TimedLoginTestCase) testcase;
+			/**
+			 * Start the login attempt, wait for the requested amount of time and then complete the test
+			 */
+			long wait = timedTC.startLogin();
+			if (wait < 0) {
+				return false;
+			}
+			try {
+				Thread.sleep(wait);
+			} catch (InterruptedException e) {
+				logger.error("The wait time for the test case was interrupted", e);
+				Thread.currentThread().interrupt();
+				return false;
+			}
+			return timedTC.finishLogin();
 		} else if (testcase instanceof LoginTestCase) {
 			LoginTestCase loginTC = (LoginTestCase) testcase;
 			/**
@@ -339,6 +1028,23 @@ public class SPTestRunner extends TestRunner {
 		}
 	}
 
+	/**
+	 * Start a timed test case, without waiting for it to complete.
+	 * 
+	 * The test case should be completed by calling its finishLogin() method once the returned amount of time 
+	 * has passed. Until then, the exchange of the current thread should remain available for the mock IdP
+	 * (see {@link #detachExchange()}).
+	 * 
+	 * @param testcase is the timed test case that should be started
+	 * @return the time (in milliseconds) to wait before the test case can be completed, or a negative value
+	 * if the test case has already failed
+	 */
+	public long startTimedTest(TimedLoginTestCase testcase) {
+		logger.info("Running testcase: "+ getTestCaseName(testcase));
+		getExchange().setMockIdPAvailable(true);
+		return testcase.startLogin();
+	}
+
 	/**
 	 * Attempt to log in to the target SP.
 	 * 
@@ -353,6 +1059,22 @@ public class SPTestRunner extends TestRunner {
 	 * the login procedure could not be completed
 	 */
 	public Boolean attemptLogin(WebClient browser, boolean spInitiated){
+		return attemptLoginOutcome(browser, spInitiated).getLogin();
+	}
+
+	/**
+	 * Attempt to log in to the target SP and retrieve the page on which the login attempt ended.
+	 * 
+	 * This is the same as {@link #attemptLogin(WebClient, boolean)}, but the outcome also describes that page, 
+	 * so unsuccessful login attempts can be told apart.
+	 * 
+	 * @param browser
+	 *            is the browser in which to attempt the login
+	 * @param spInitiated
+	 *            defines whether the login attempt should be SP-initiated or not
+	 * @return the outcome of the login attempt
+	 */
+	public LoginOutcome attemptLoginOutcome(WebClient browser, boolean spInitiated){
 		// determine the ACS location and binding, depending on the received SAML Request
 		try {
 			HtmlPage responsePage;
@@ -360,7 +1082,7 @@ public class SPTestRunner extends TestRunner {
 				// retrieve the login page, thereby sending the AuthnRequest to the mock IdP
 				Page startPage = null;
 				try{
-					startPage = browser.getPage(spConfig.getStartPage());
+					startPage = browser.getPage(getSPConfig().getStartPage());
 				}
 				catch(SSLHandshakeException badSSL){
 					// log the problem with the insecure SSL
@@ -370,16 +1092,22 @@ public class SPTestRunner extends TestRunner {
 					browser.getOptions().setUseInsecureSSL(true);
 					// reset browser to apply setting
 					browser.closeAllWindows();
-					startPage = browser.getPage(spConfig.getStartPage());
+					startPage = browser.getPage(getSPConfig().getStartPage());
 					// reset insecure SSL option for future use
 					browser.getOptions().setUseInsecureSSL(false);
 				}
-				responsePage = interactWithPage(startPage, spConfig.getPreLoginInteractions());
+				if (isDirectPost(startPage)) {
+					responsePage = postToACS(browser, startPage);
+				}
+				else {
+					responsePage = interactWithPage(startPage, getSPConfig().getPreLoginInteractions());
+				}
 			}
 			else {
+				Page idpPage;
 				try{
 					// go directly to the IdP page without an AuthnRequest (for idp-initiated authentication)
-					responsePage = browser.getPage(testsuite.getMockServerURL().toString());
+					idpPage = browser.getPage(testsuite.getMockServerURL().toString());
 				}
 				catch(Exception badSSL){
 					// log the problem with the insecure SSL
@@ -389,20 +1117,21 @@ public class SPTestRunner extends TestRunner {
 					browser.getOptions().setUseInsecureSSL(true);
 					// reset browser to apply setting
 					browser.closeAllWindows();
-					responsePage = browser.getPage(testsuite.getMockServerURL().toString());
+					idpPage = browser.getPage(testsuite.getMockServerURL().toString());
 					// reset insecure SSL option for future use
 					browser.getOptions().setUseInsecureSSL(false);
 				}
+				responsePage = isDirectPost(idpPage) ? postToACS(browser, idpPage) : (HtmlPage) idpPage;
 			}
 			// the login succeeded when all configured matches are found
 			if (checkLoginHTTPStatusCode(responsePage) 
 					&& checkLoginURL(responsePage) 
 					&& checkLoginContent(responsePage) 
 					&& checkLoginCookies(browser.getCookies(responsePage.getUrl()))) {
-				return new Boolean(true);
+				return LoginOutcome.of(true, responsePage);
 			}
 			else{
-				return new Boolean(false);
+				return LoginOutcome.of(false, responsePage);
 			}
 		} catch (ScriptException e){
 			logger.error("Could not correctly redirect back to target SP", e);
@@ -413,80 +1142,188 @@ public class SPTestRunner extends TestRunner {
 		} catch (IOException e) {
 			logger.error("An I/O exception occurred while trying to access the start page", e);
 		}
-		return null;
+		return LoginOutcome.INCOMPLETE;
 	}
+	/**
+	 * Check if the page is the reply of the mock IdP to a browser that asked for a direct ACS POST
+	 * 
+	 * @param page is the page that was loaded in the browser
+	 * @return true if the page contains the Response that should be POSTed to the ACS
+	 */
+	private boolean isDirectPost(Page page) {
+		return page != null 
+				&& page.getWebResponse().getWebRequest().getUrl().toString().startsWith(testsuite.getMockServerURL().toString())
+				&& AcsPost.CONTENT_TYPE.equals(page.getWebResponse().getContentType());
+	}
+
+	/**
+	 * POST the Response from the reply of the mock IdP to the ACS, in the same browser so the cookies of the
+	 * login attempt are sent along
+	 * 
+	 * @param browser is the browser in which the login attempt is made
+	 * @param reply is the reply of the mock IdP
+	 * @return the page to which the ACS led the browser
+	 * @throws IOException if the reply could not be read or the ACS could not be accessed
+	 */
+	private HtmlPage postToACS(WebClient browser, Page reply) throws IOException {
+		AcsPost post = AcsPost.fromJson(reply.getWebResponse().getContentAsString());
+		if (post == null) {
+			throw new IOException("The reply of the mock IdP did not contain a Response for the ACS");
+		}
+		return browser.getPage(post.toWebRequest());
+	}
+
 	/**
 	 * Retrieves a browser that can be used by the test runner. 
 	 * 
-	 * The browser is created and configured according to any user-supplied options 
+	 * The browser is taken from the browser pool, if possible, and is leased to the exchange of the current 
+	 * thread until that exchange is released (see {@link #releaseBrowsers()} and {@link #releaseExchange()}).
 	 * 
-	 * @return a new WebClient object that can be used as browser by the test runner.
+	 * @return a WebClient object without any cookies, windows or history that can be used as browser by the test runner.
 	 */
 	public WebClient getNewBrowser(){
-		WebClient browser = new WebClient();
-		// configure the browser that will be used during testing
-		browser.getOptions().setRedirectEnabled(true);
+		WebClient browser = browserPool.checkout(getExchange());
+		// the Response can only be POSTed directly if the mock IdP is reached without any interaction
+		ArrayList<Interaction> preLoginInteractions = getSPConfig().getPreLoginInteractions();
+		boolean direct = directPost && (preLoginInteractions == null || preLoginInteractions.isEmpty());
+		browser.addRequestHeader(HEADER_DIRECT_POST, String.valueOf(direct));
+		// browsers from the browser pool may already reach the mock IdP in-process
+		if (inProcess && !(browser.getWebConnection() instanceof InProcessConnection)){
+			new InProcessConnection(browser, context, mockHandler);
+		}
 		return browser;
 	}
 
 	/**
-	 * Retrieves the SAML Request that was received from the SP
+	 * Return a browser to the browser pool before the exchange it is leased to is released, e.g. when it 
+	 * was used on a thread that does not release its exchange
 	 * 
-	 * This is set from the Handler that processes the SP's login attempt
-	 * on the mock IdP so it should only be retrieved after a login 
-	 * attempt has been initiated
+	 * @param browser is the browser that is no longer used
+	 */
+	public void releaseBrowser(WebClient browser){
+		browserPool.checkin(browser);
+	}
+
+	/**
+	 * Return all browsers that were retrieved for the exchange of the current thread to the browser pool
+	 */
+	public void releaseBrowsers(){
+		browserPool.checkinAll(getExchange());
+	}
+
+	/**
+	 * Retrieve the context of the test run that is performed by this test runner
 	 * 
-	 * @param request is the SAML Request
+	 * @return the context of the test run
 	 */
-	public String getAuthnRequest() {
-		return samlRequest;
+	public RunContext getContext() {
+		return context;
 	}
+
 	/**
-	 * Set the SAML Request that was received from the SP
+	 * Retrieve the exchange with the mock IdP that is used by the current thread
 	 * 
-	 * This is set from the Handler that processes the SP's login attempt
-	 * on the mock IdP.
+	 * @return the exchange for the current thread
+	 */
+	public LoginExchange getExchange() {
+		return context.getExchange();
+	}
+
+	/**
+	 * Stop using the exchange of the current thread, so the next test case on this thread 
+	 * gets a new exchange
+	 */
+	public void releaseExchange() {
+		releaseExchange(context.detachExchange());
+	}
+
+	/**
+	 * Detach the exchange from the current thread, without releasing it (see {@link RunContext#detachExchange()})
+	 * 
+	 * @return the exchange that was used by the current thread
+	 */
+	public LoginExchange detachExchange() {
+		return context.detachExchange();
+	}
+
+	/**
+	 * Stop using the given exchange
 	 * 
-	 * @param request is the SAML Request
+	 * @param exchange is the exchange that is no longer used (may be null)
 	 */
-	public void setSamlRequest(String request) {
-		samlRequest = request;
+	public void releaseExchange(LoginExchange exchange) {
+		if (exchange != null) {
+			browserPool.checkinAll(exchange);
+		}
+		context.releaseExchange(exchange);
 	}
 
 	/**
-	 * Set the SAML Binding that the SP has used to send its AuthnRequest
+	 * Report the result of a test together with the other results of this test runner.
+	 * 
+	 * Results should be stored through {@link RunContext#addTestResult(String, TestResult)}, which 
+	 * makes sure they are reported one at a time.
+	 * 
+	 * @param testsuiteName is the name of the test suite the test belongs to
+	 * @param result is the result of the test
+	 */
+	void reportTestResult(String testsuiteName, TestResult result) {
+		addTestResult(testsuiteName, result);
+	}
+
+	/**
+	 * Retrieves the SAML Request that was received from the SP
 	 * 
 	 * This is set from the Handler that processes the SP's login attempt
-	 * on the mock IdP.
+	 * on the mock IdP so it should only be retrieved after a login 
+	 * attempt has been initiated
 	 * 
-	 * @param binding is the name of the SAML Binding
+	 * @return the SAML Request for the latest login attempt of the current thread, 
+	 * or null if none was received
 	 */
-	public void setSamlRequestBinding(String binding) {
-		samlRequestBinding = binding;
+	public String getAuthnRequest() {
+		LoginAttempt attempt = context.getCorrelationStore().getLatest(getExchange().getToken());
+		return attempt == null ? null : attempt.getSamlRequest();
 	}
 
 	/**
 	 * Set the SAML Response that should be sent to the SP
 	 * 
 	 * This is set from the test case, which determines what kind 
-	 * of response should be given by the mock IdP
+	 * of response should be given by the mock IdP. It registers a new
+	 * login attempt for the current thread, which is used by all login
+	 * attempts until a different SAML Response is set.
 	 * 
 	 * @param response is the SAML Response
 	 */
 	public void setSamlResponse(String response) {
-		samlResponse = response;
+		context.getCorrelationStore().register(getExchange().getToken(), response);
+	}
+
+	/**
+	 * Set the factory that creates the SAML Response that should be sent to the SP
+	 * 
+	 * This is used instead of {@link #setSamlResponse(String)} when the SAML Response 
+	 * depends on the AuthnRequest. The mock IdP calls the factory with the values from 
+	 * the AuthnRequest it received, so the SAML Response does not need any placeholders.
+	 * It registers a new login attempt for the current thread, which is used by all login
+	 * attempts until a different SAML Response is set.
+	 * 
+	 * @param factory creates the SAML Response
+	 */
+	public void setResponseFactory(ResponseFactory factory) {
+		context.getCorrelationStore().register(getExchange().getToken(), factory);
 	}
 	
 	/**
 	 * Retrieve the SAML Response that should be sent to the SP
 	 * 
-	 * This is mainly used by the mock IdP to retrieve the response 
-	 * it should return
-	 * 
-	 * @return the SAML Response string
+	 * @return the SAML Response string that was set for the current thread,
+	 * or null if none was set
 	 */
 	public String getSamlResponse(){
-		return samlResponse;
+		LoginAttempt attempt = context.getCorrelationStore().getLatest(getExchange().getToken());
+		return attempt == null ? null : attempt.getSamlResponse();
 	}
 	/**
 	 * Retrieve the SPConfiguration object containing the target SP configuration info
@@ -494,16 +1331,16 @@ public class SPTestRunner extends TestRunner {
 	 * @return the SPConfiguration object used in this test
 	 */
 	public SPConfiguration getSPConfig() {
-		return spConfig;
+		return context.getSPConfig();
 	}
 
 	public boolean checkLoginHTTPStatusCode(HtmlPage page){
 		// check the HTTP Status code of the page to see if the login was successful
-		if (spConfig.getLoginStatuscode() == 0) {
+		if (getSPConfig().getLoginStatuscode() == 0) {
 			// do not match against status code
 			return true;
 		} 
-		else if (page.getWebResponse().getStatusCode() == spConfig.getLoginStatuscode()) {
+		else if (page.getWebResponse().getStatusCode() == getSPConfig().getLoginStatuscode()) {
 			return true;
 		}
 		else{
@@ -514,14 +1351,14 @@ public class SPTestRunner extends TestRunner {
 
 	public boolean checkLoginURL(HtmlPage responsePage) {
 		// check the URL of the page to see if the login was successful
-		if (spConfig.getLoginURL() == null) {
+		if (getSPConfig().getLoginURL() == null) {
 			// do not match against URL
 			return true;
 		} else {
 			URL responseURL = responsePage.getUrl();
 			URL matchURL;
 			try {
-				matchURL = new URL(spConfig.getLoginURL());
+				matchURL = new URL(getSPConfig().getLoginURL());
 			
 				// check if the current location matches what we expect when we are
 				// correctly logged in
@@ -534,7 +1371,7 @@ public class SPTestRunner extends TestRunner {
 					return false;
 				}
 			} catch (MalformedURLException e) {
-				logger.debug("The expected URL " + spConfig.getLoginURL() + " is malformed");
+				logger.debug("The expected URL " + getSPConfig().getLoginURL() + " is malformed");
 				return false;
 			}
 		}
@@ -543,11 +1380,11 @@ public class SPTestRunner extends TestRunner {
 	public boolean checkLoginContent(HtmlPage responsePage) {
 		// check if the page matches what we expect to see when we log in
 		String page = responsePage.getWebResponse().getContentAsString();
-		if (spConfig.getLoginContent() == null) {
+		if (getSPConfig().getLoginContent() == null) {
 			// do no match against page content
 			return true;
 		} else {
-			String contentRegex = spConfig.getLoginContent();
+			String contentRegex = getSPConfig().getLoginContent();
 			// compile the regex so it allows the dot character to also match new-line characters,
 			// which is useful since this is a multi-line string
 			Pattern regexP = Pattern.compile(contentRegex, Pattern.DOTALL);
@@ -563,11 +1400,11 @@ public class SPTestRunner extends TestRunner {
 
 	public boolean checkLoginCookies(Set<Cookie> sessionCookies) {
 		// check the cookies
-		if (spConfig.getLoginCookies().size() <= 0) {
+		if (getSPConfig().getLoginCookies().size() <= 0) {
 			// do not check cookies
 			return true;
 		} else {
-			ArrayList<StringPair> checkCookies = spConfig.getLoginCookies();
+			ArrayList<StringPair> checkCookies = getSPConfig().getLoginCookies();
 
 			// only check for cookies if we actually have some to match against
 			if (checkCookies.size() > 0) {
@@ -620,7 +1457,7 @@ public class SPTestRunner extends TestRunner {
 	 * changed Response elements to keep them valid (default: true) 
 	 */
 	public boolean isSigUpdateResponseAllowed() {
-		return sigUpdateResponseAllowed;
+		return getExchange().isSigUpdateResponseAllowed();
 	}
 
 	/**
@@ -638,7 +1475,7 @@ public class SPTestRunner extends TestRunner {
 	 * @param sigUpdateResponseAllowed is the boolean that determines if signature updates are allowed
 	 */
 	public void setSigUpdateResponseAllowed(boolean sigUpdateResponseAllowed) {
-		this.sigUpdateResponseAllowed = sigUpdateResponseAllowed;
+		getExchange().setSigUpdateResponseAllowed(sigUpdateResponseAllowed);
 	}
 
 	/**
@@ -649,7 +1486,7 @@ public class SPTestRunner extends TestRunner {
 	 * changed Assertion elements to keep them valid (default: true)
 	 */
 	public boolean isSigUpdateAssertionAllowed() {
-		return sigUpdateAssertionAllowed;
+		return getExchange().isSigUpdateAssertionAllowed();
 	}
 
 	/**
@@ -667,6 +1504,6 @@ public class SPTestRunner extends TestRunner {
 	 * @param sigUpdateAssertionAllowed the sigUpdateAssertionAllowed to set
 	 */
 	public void setSigUpdateAssertionAllowed(boolean sigUpdateAssertionAllowed) {
-		this.sigUpdateAssertionAllowed = sigUpdateAssertionAllowed;
+		getExchange().setSigUpdateAssertionAllowed(sigUpdateAssertionAllowed);
 	}
 }
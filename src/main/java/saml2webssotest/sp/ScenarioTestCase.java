@@ -0,0 +1,74 @@
+package saml2webssotest.sp;
+
+import com.gargoylesoftware.htmlunit.WebClient;
+
+import saml2webssotest.sp.testsuites.SPTestSuite;
+import saml2webssotest.sp.testsuites.SPTestSuite.LoginTestCase;
+
+/**
+ * A test case that attempts to log in with the SAML Response of a login scenario (see {@link ResponseScenario}).
+ *
+ * Unlike the test cases of the test suites, these test cases are not declared as classes. They are added to
+ * the test cases of the test suite that is run, so they are reported with the name of their scenario.
+ *
+ * @author RiaasM
+ *
+ */
+public class ScenarioTestCase implements LoginTestCase {
+	private final SPTestSuite suite;
+	private final MutationPipeline pipeline;
+	private String resultMessage;
+
+	/**
+	 * Create the test case for the given scenario
+	 *
+	 * @param suite is the test suite to which the test case is added
+	 * @param pipeline is the compiled scenario
+	 */
+	public ScenarioTestCase(SPTestSuite suite, MutationPipeline pipeline) {
+		this.suite = suite;
+		this.pipeline = pipeline;
+	}
+
+	@Override
+	public String getDescription() {
+		return pipeline.getDescription();
+	}
+
+	@Override
+	public String getResultMessage() {
+		return resultMessage;
+	}
+
+	@Override
+	public boolean isMandatory() {
+		return pipeline.isMandatory();
+	}
+
+	@Override
+	public boolean checkLogin() {
+		SPTestRunner runner = suite.getRunner();
+		WebClient browser = runner.getNewBrowser();
+		runner.setResponseFactory(pipeline.newResponseFactory(suite));
+		Boolean login = runner.attemptLogin(browser, pipeline.isSpInitiated());
+		if (login == null) {
+			resultMessage = "The login attempt could not be completed";
+			return false;
+		}
+		else if (login != pipeline.isExpectLogin()) {
+			resultMessage = "The Service Provider " + (login ? "allowed" : "did not allow") + " login with the Response of scenario " + getName();
+			return false;
+		}
+		else {
+			resultMessage = "The Service Provider " + (login ? "allowed" : "did not allow") + " login with the Response of scenario " + getName() + ", as expected";
+			return true;
+		}
+	}
+
+	/**
+	 * @return the name of the scenario
+	 */
+	public String getName() {
+		return pipeline.getName();
+	}
+}
@@ -0,0 +1,137 @@
+package saml2webssotest.sp;
+
+import java.security.cert.Certificate;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Contains what was found when connecting to an endpoint of the target SP (see {@link TLSAnalyzer}).
+ *
+ * An endpoint that does not use HTTPS is not contacted at all, so only its host and port are known.
+ *
+ * @author RiaasM
+ *
+ */
+public class TLSAnalysis {
+	private final String host;
+	private final int port;
+	/**
+	 * Whether the endpoint uses HTTPS
+	 */
+	private final boolean secure;
+	/**
+	 * The protocol (e.g. "TLSv1.2") and cipher suite that were negotiated, or null if no handshake was completed
+	 */
+	private final String protocol;
+	private final String cipherSuite;
+	/**
+	 * The certificate chain of the endpoint, with the certificate of the endpoint first
+	 */
+	private final List<Certificate> certificates;
+	/**
+	 * Whether the certificate chain is trusted by the default trust store of the JVM
+	 */
+	private final boolean trusted;
+	/**
+	 * The duration (in milliseconds) of the handshake
+	 */
+	private final long handshakeTime;
+	/**
+	 * The reason why no handshake was completed, or null if it was completed
+	 */
+	private final String error;
+
+	private TLSAnalysis(String host, int port, boolean secure, String protocol, String cipherSuite, Certificate[] certificates,
+			boolean trusted, long handshakeTime, String error) {
+		this.host = host;
+		this.port = port;
+		this.secure = secure;
+		this.protocol = protocol;
+		this.cipherSuite = cipherSuite;
+		this.certificates = certificates == null ? Collections.<Certificate>emptyList() : Collections.unmodifiableList(Arrays.asList(certificates));
+		this.trusted = trusted;
+		this.handshakeTime = handshakeTime;
+		this.error = error;
+	}
+
+	/**
+	 * @return the analysis of an endpoint that does not use HTTPS
+	 */
+	static TLSAnalysis insecure(String host, int port) {
+		return new TLSAnalysis(host, port, false, null, null, null, false, 0, null);
+	}
+
+	/**
+	 * @return the analysis of an HTTPS endpoint with which a handshake was completed
+	 */
+	static TLSAnalysis completed(String host, int port, String protocol, String cipherSuite, Certificate[] certificates,
+			boolean trusted, long handshakeTime) {
+		return new TLSAnalysis(host, port, true, protocol, cipherSuite, certificates, trusted, handshakeTime, null);
+	}
+
+	/**
+	 * @return the analysis of an HTTPS endpoint with which no handshake could be completed
+	 */
+	static TLSAnalysis failed(String host, int port, String error) {
+		return new TLSAnalysis(host, port, true, null, null, null, false, 0, error);
+	}
+
+	/**
+	 * @return true if a handshake was completed with the endpoint
+	 */
+	public boolean isConnected() {
+		return secure && error == null;
+	}
+
+	/**
+	 * @return true if the negotiated protocol is SSL 3.0 or any version of TLS
+	 */
+	public boolean usesSSLv3OrTLS() {
+		return protocol != null && (protocol.startsWith("TLS") || protocol.equals("SSLv3"));
+	}
+
+	/*
+	 * Simple getters
+	 */
+
+	public String getHost() {
+		return host;
+	}
+	public int getPort() {
+		return port;
+	}
+	public boolean isSecure() {
+		return secure;
+	}
+	public String getProtocol() {
+		return protocol;
+	}
+	public String getCipherSuite() {
+		return cipherSuite;
+	}
+	public List<Certificate> getCertificates() {
+		return certificates;
+	}
+	public boolean isTrusted() {
+		return trusted;
+	}
+	public long getHandshakeTime() {
+		return handshakeTime;
+	}
+	public String getError() {
+		return error;
+	}
+
+	@Override
+	public String toString() {
+		if (!secure) {
+			return host + ":" + port + " does not use HTTPS";
+		}
+		if (error != null) {
+			return host + ":" + port + " could not be analyzed: " + error;
+		}
+		return host + ":" + port + " uses " + protocol + " with " + cipherSuite + " (" + certificates.size() + " certificates, "
+				+ (trusted ? "trusted" : "not trusted") + ", handshake in " + handshakeTime + " ms)";
+	}
+}
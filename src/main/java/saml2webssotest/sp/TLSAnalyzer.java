@@ -0,0 +1,313 @@
+package saml2webssotest.sp;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
+import java.net.Socket;
+import java.net.URL;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.SecureRandom;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.TrustManagerFactory;
+import javax.net.ssl.X509TrustManager;
+
+import org.opensaml.common.xml.SAMLConstants;
+import org.opensaml.saml2.metadata.Endpoint;
+import org.opensaml.saml2.metadata.SPSSODescriptor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+/**
+ * Analyzes the TLS connections to the endpoints of the target SP.
+ *
+ * Each HTTPS endpoint is contacted once per host and port, on a limited number of background threads, and the
+ * negotiated protocol, cipher suite, certificate chain and handshake time are kept for the rest of the test run.
+ * The test cases and the mock IdP all use these results, so the target SP is not contacted again for each of them.
+ *
+ * The handshakes use their own SSLContext, which accepts any certificate so the endpoints can be analyzed even if
+ * their certificates are not valid. Whether a certificate chain would have been trusted is checked separately,
+ * against the default trust store of the JVM. The SSLContext of the JVM and of the browsers is never changed.
+ *
+ * @author RiaasM
+ *
+ */
+public class TLSAnalyzer {
+	/**
+	 * The number of endpoints that are analyzed at the same time
+	 */
+	public static final int DEFAULT_THREADS = 8;
+	/**
+	 * The time (in milliseconds) to wait for the connection to an endpoint and for each step of its handshake
+	 */
+	public static final int CONNECT_TIMEOUT = 10000;
+	/**
+	 * The time (in milliseconds) to wait for the analysis of an endpoint, including the time it waits for a thread
+	 */
+	public static final long ANALYSIS_TIMEOUT = 60000;
+	/**
+	 * Logger for this class
+	 */
+	private final Logger logger = LoggerFactory.getLogger(TLSAnalyzer.class);
+	/**
+	 * The analyses of the HTTPS endpoints, by host and port (e.g. "sp.example.org:443")
+	 */
+	private final ConcurrentHashMap<String, Future<TLSAnalysis>> analyses = new ConcurrentHashMap<String, Future<TLSAnalysis>>();
+	/**
+	 * The threads on which the endpoints are analyzed
+	 */
+	private final ExecutorService threads;
+	/**
+	 * The trust manager of the JVM, which determines whether a certificate chain would have been trusted
+	 */
+	private final X509TrustManager defaultTrustManager;
+	/**
+	 * Whether the certificate chain of the handshake in the current thread was trusted by the default trust manager
+	 */
+	private final ThreadLocal<Boolean> handshakeTrusted = new ThreadLocal<Boolean>();
+	/**
+	 * Creates the sockets for the handshakes, which accept any certificate
+	 */
+	private final SSLSocketFactory socketFactory;
+
+	/**
+	 * Create an analyzer
+	 *
+	 * @param threads is the number of endpoints that may be analyzed at the same time
+	 */
+	public TLSAnalyzer(int threads) {
+		this.threads = Executors.newFixedThreadPool(Math.max(1, threads), new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable task) {
+				Thread thread = new Thread(task, "tls-analyzer");
+				// the analyses should never keep the test runner from exiting
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		this.defaultTrustManager = findDefaultTrustManager();
+		this.socketFactory = createSocketFactory();
+	}
+
+	/**
+	 * Start analyzing all HTTPS endpoints in the given metadata of the target SP
+	 *
+	 * @param metadata is the metadata of the target SP (may be null)
+	 */
+	public void analyzeMetadata(Document metadata) {
+		for (URL endpoint : getEndpoints(metadata)) {
+			analyze(endpoint);
+		}
+	}
+
+	/**
+	 * Start analyzing the given endpoint, unless its host and port are already being analyzed
+	 *
+	 * @param endpoint is the URL of the endpoint
+	 * @return the analysis of the endpoint
+	 */
+	public Future<TLSAnalysis> analyze(URL endpoint) {
+		final String host = endpoint.getHost();
+		final int port = endpoint.getPort() == -1 ? endpoint.getDefaultPort() : endpoint.getPort();
+		if (!endpoint.getProtocol().equalsIgnoreCase("https")) {
+			// nothing to analyze, so don't contact the endpoint
+			FutureTask<TLSAnalysis> insecure = new FutureTask<TLSAnalysis>(new Callable<TLSAnalysis>() {
+				@Override
+				public TLSAnalysis call() {
+					return TLSAnalysis.insecure(host, port);
+				}
+			});
+			insecure.run();
+			return insecure;
+		}
+		String origin = host.toLowerCase() + ":" + port;
+		FutureTask<TLSAnalysis> analysis = new FutureTask<TLSAnalysis>(new Callable<TLSAnalysis>() {
+			@Override
+			public TLSAnalysis call() {
+				return handshake(host, port);
+			}
+		});
+		Future<TLSAnalysis> existing = analyses.putIfAbsent(origin, analysis);
+		if (existing != null) {
+			return existing;
+		}
+		threads.execute(analysis);
+		return analysis;
+	}
+
+	/**
+	 * Retrieve the analysis of the given endpoint, waiting for it if it is not finished yet
+	 *
+	 * @param endpoint is the URL of the endpoint
+	 * @return the analysis of the endpoint, which contains the error if it could not be finished
+	 */
+	public TLSAnalysis getAnalysis(URL endpoint) {
+		Future<TLSAnalysis> analysis = analyze(endpoint);
+		int port = endpoint.getPort() == -1 ? endpoint.getDefaultPort() : endpoint.getPort();
+		try {
+			return analysis.get(ANALYSIS_TIMEOUT, TimeUnit.MILLISECONDS);
+		} catch (TimeoutException e) {
+			return TLSAnalysis.failed(endpoint.getHost(), port, "The analysis did not finish within " + ANALYSIS_TIMEOUT + " ms");
+		} catch (ExecutionException e) {
+			logger.error("Could not analyze the endpoint " + endpoint, e.getCause());
+			return TLSAnalysis.failed(endpoint.getHost(), port, String.valueOf(e.getCause()));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return TLSAnalysis.failed(endpoint.getHost(), port, "The analysis was interrupted");
+		}
+	}
+
+	/**
+	 * Forget the analyses, so the endpoints are analyzed again in the next test run
+	 */
+	public void clear() {
+		analyses.clear();
+	}
+
+	/**
+	 * Retrieve the locations of all endpoints of the SP in the given metadata
+	 *
+	 * @param metadata is the metadata of the target SP (may be null)
+	 * @return the locations and response locations of the endpoints, without the malformed ones
+	 */
+	public List<URL> getEndpoints(Document metadata) {
+		ArrayList<URL> endpoints = new ArrayList<URL>();
+		if (metadata == null) {
+			return endpoints;
+		}
+		NodeList spDescriptors = metadata.getElementsByTagNameNS(SAMLConstants.SAML20MD_NS, SPSSODescriptor.DEFAULT_ELEMENT_LOCAL_NAME);
+		for (int i = 0; i < spDescriptors.getLength(); i++) {
+			NodeList elements = ((Element) spDescriptors.item(i)).getElementsByTagNameNS(SAMLConstants.SAML20MD_NS, "*");
+			for (int j = 0; j < elements.getLength(); j++) {
+				Element element = (Element) elements.item(j);
+				addEndpoint(endpoints, element.getAttribute(Endpoint.LOCATION_ATTRIB_NAME));
+				addEndpoint(endpoints, element.getAttribute(Endpoint.RESPONSE_LOCATION_ATTRIB_NAME));
+			}
+		}
+		return endpoints;
+	}
+
+	private void addEndpoint(List<URL> endpoints, String location) {
+		if (location == null || location.isEmpty()) {
+			return;
+		}
+		try {
+			endpoints.add(new URL(location));
+		} catch (MalformedURLException e) {
+			logger.debug("The SP metadata contains a malformed endpoint location: " + location, e);
+		}
+	}
+
+	/**
+	 * Perform a handshake with the given endpoint and keep what was negotiated
+	 */
+	private TLSAnalysis handshake(String host, int port) {
+		if (socketFactory == null) {
+			return TLSAnalysis.failed(host, port, "No SSLContext is available for the analysis");
+		}
+		Socket plain = new Socket();
+		try {
+			plain.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT);
+			plain.setSoTimeout(CONNECT_TIMEOUT);
+			// layer the TLS socket over the connected socket, so the host name is still sent to the endpoint (SNI)
+			SSLSocket socket = (SSLSocket) socketFactory.createSocket(plain, host, port, true);
+			try {
+				handshakeTrusted.set(Boolean.FALSE);
+				long start = System.nanoTime();
+				socket.startHandshake();
+				long handshakeTime = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+				SSLSession session = socket.getSession();
+				TLSAnalysis analysis = TLSAnalysis.completed(host, port, session.getProtocol(), session.getCipherSuite(),
+						session.getPeerCertificates(), handshakeTrusted.get(), handshakeTime);
+				logger.debug(analysis.toString());
+				return analysis;
+			} finally {
+				handshakeTrusted.remove();
+				socket.close();
+			}
+		} catch (IOException e) {
+			logger.debug("Could not complete a handshake with " + host + ":" + port, e);
+			try {
+				plain.close();
+			} catch (IOException closeFailure) {
+				logger.trace("Could not close the connection to " + host + ":" + port, closeFailure);
+			}
+			return TLSAnalysis.failed(host, port, e.getMessage() == null ? e.getClass().getSimpleName() : e.getMessage());
+		}
+	}
+
+	/**
+	 * Create the socket factory for the handshakes, with a trust manager that accepts any certificate but records
+	 * whether the default trust manager would have accepted it
+	 */
+	private SSLSocketFactory createSocketFactory() {
+		TrustManager[] recordingTrust = new TrustManager[] {
+				new X509TrustManager() {
+					@Override
+					public X509Certificate[] getAcceptedIssuers() {
+						return new X509Certificate[0];
+					}
+					@Override
+					public void checkServerTrusted(X509Certificate[] chain, String authType) throws CertificateException {
+						if (defaultTrustManager == null) {
+							return;
+						}
+						try {
+							defaultTrustManager.checkServerTrusted(chain, authType);
+							handshakeTrusted.set(Boolean.TRUE);
+						} catch (CertificateException e) {
+							logger.debug("The certificate chain would not have been trusted", e);
+						}
+					}
+					@Override
+					public void checkClientTrusted(X509Certificate[] chain, String authType) throws CertificateException {
+					}
+				}
+		};
+		try {
+			SSLContext sc = SSLContext.getInstance("TLS");
+			sc.init(null, recordingTrust, new SecureRandom());
+			return sc.getSocketFactory();
+		} catch (GeneralSecurityException e) {
+			logger.error("Could not initialize the SSLContext for the TLS analysis", e);
+			return null;
+		}
+	}
+
+	private X509TrustManager findDefaultTrustManager() {
+		try {
+			TrustManagerFactory factory = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+			factory.init((KeyStore) null);
+			for (TrustManager trustManager : factory.getTrustManagers()) {
+				if (trustManager instanceof X509TrustManager) {
+					return (X509TrustManager) trustManager;
+				}
+			}
+		} catch (GeneralSecurityException e) {
+			logger.error("Could not load the default trust store, so no certificate chain will be trusted", e);
+		}
+		return null;
+	}
+}
@@ -0,0 +1,190 @@
+package saml2webssotest.sp;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import saml2webssotest.common.TestResult;
+import saml2webssotest.common.TestSuite.TestCase;
+import saml2webssotest.sp.testsuites.SPTestSuite.TimedLoginTestCase;
+
+/**
+ * Runs test cases on a pool of worker threads.
+ *
+ * Every worker uses its own browsers and its own exchange with the mock IdP (see {@link LoginExchange}),
+ * so independent test cases can be run at the same time. The results are returned in the same order
+ * as the test cases were provided, so they can be reported the same way as for a serial run.
+ *
+ * Timed test cases (see {@link TimedLoginTestCase}) are started first. Their waits are scheduled in a 
+ * separate timed phase, so they overlap with each other and with the other test cases, and the worker 
+ * threads are not blocked while waiting.
+ *
+ * @author RiaasM
+ *
+ */
+public class TestCaseExecutor {
+	/**
+	 * Logger for this class
+	 */
+	private final Logger logger = LoggerFactory.getLogger(TestCaseExecutor.class);
+	/**
+	 * The worker threads on which the test cases are run
+	 */
+	private final ExecutorService workers;
+	/**
+	 * Schedules the completion of timed test cases once their wait time has passed
+	 */
+	private final ScheduledExecutorService timedPhase = Executors.newSingleThreadScheduledExecutor();
+
+	/**
+	 * Create an executor that runs test cases on the given number of worker threads
+	 *
+	 * @param threads is the number of worker threads
+	 */
+	public TestCaseExecutor(int threads) {
+		this(Executors.newFixedThreadPool(threads));
+	}
+
+	/**
+	 * Create an executor that runs test cases on the given worker threads, e.g. one that starts 
+	 * a virtual thread for each test case (see {@link VirtualThreadPool#newExecutor()})
+	 *
+	 * @param workers is the executor on which the test cases are run
+	 */
+	public TestCaseExecutor(ExecutorService workers) {
+		this.workers = workers;
+	}
+
+	/**
+	 * Run the provided test cases and wait for all of them to finish.
+	 *
+	 * @param runner is the test runner that should run each test case
+	 * @param testcases are the test cases that should be run
+	 * @return the results of the test cases, in the same order as the provided test cases
+	 */
+	public List<TestResult> execute(final SPTestRunner runner, List<TestCase> testcases) {
+		HashMap<TestCase, Future<TestResult>> pending = new HashMap<TestCase, Future<TestResult>>();
+		// start the timed test cases first, so their waits can overlap with the rest of the test cases
+		for (TestCase testcase : testcases) {
+			if (testcase instanceof TimedLoginTestCase) {
+				pending.put(testcase, submitTimed(runner, (TimedLoginTestCase) testcase));
+			}
+		}
+		for (final TestCase testcase : testcases) {
+			if (testcase instanceof TimedLoginTestCase) {
+				continue;
+			}
+			pending.put(testcase, workers.submit(new Callable<TestResult>() {
+				@Override
+				public TestResult call() {
+					try {
+						boolean status = runner.runTest(testcase);
+						return newTestResult(testcase)
+								.withResultStatus(status)
+								.withResultMessage(testcase.getResultMessage());
+					} finally {
+						// the next test case on this thread should start with a new exchange
+						runner.releaseExchange();
+					}
+				}
+			}));
+		}
+
+		ArrayList<TestResult> results = new ArrayList<TestResult>();
+		for (TestCase testcase : testcases) {
+			try {
+				results.add(pending.get(testcase).get());
+			} catch (ExecutionException e) {
+				logger.error("The test case " + SPTestRunner.getTestCaseName(testcase) + " could not be completed", e.getCause());
+				results.add(newTestResult(testcase)
+						.withResultStatus(false)
+						.withResultMessage("The test case could not be completed"));
+			} catch (InterruptedException e) {
+				logger.error("Interrupted while waiting for the test case " + SPTestRunner.getTestCaseName(testcase), e);
+				Thread.currentThread().interrupt();
+				results.add(newTestResult(testcase)
+						.withResultStatus(false)
+						.withResultMessage("The test run was interrupted"));
+			}
+		}
+		return results;
+	}
+
+	/**
+	 * Start the timed test case on a worker thread and schedule its completion once its wait time has passed
+	 *
+	 * @param runner is the test runner that should start the test case
+	 * @param testcase is the timed test case
+	 * @return the result of the test case, which is available once it has been completed
+	 */
+	private Future<TestResult> submitTimed(final SPTestRunner runner, final TimedLoginTestCase testcase) {
+		// the exchange of the test case, which must remain available for the mock IdP until the test case is completed
+		final AtomicReference<LoginExchange> exchange = new AtomicReference<LoginExchange>();
+		final FutureTask<TestResult> completion = new FutureTask<TestResult>(new Callable<TestResult>() {
+			@Override
+			public TestResult call() {
+				try {
+					// the test case is only completed if it could be started
+					boolean status = exchange.get() != null && testcase.finishLogin();
+					return newTestResult(testcase)
+							.withResultStatus(status)
+							.withResultMessage(testcase.getResultMessage());
+				} finally {
+					runner.releaseExchange(exchange.get());
+				}
+			}
+		});
+		workers.execute(new Runnable() {
+			@Override
+			public void run() {
+				long wait = TimedLoginTestCase.FAILED;
+				try {
+					wait = runner.startTimedTest(testcase);
+				} catch (RuntimeException e) {
+					logger.error("The test case " + SPTestRunner.getTestCaseName(testcase) + " could not be started", e);
+				}
+				if (wait < 0) {
+					runner.releaseExchange();
+					completion.run();
+				}
+				else {
+					exchange.set(runner.detachExchange());
+					logger.debug("Completing the test case " + SPTestRunner.getTestCaseName(testcase) + " in " + wait + " ms");
+					timedPhase.schedule(new Runnable() {
+						@Override
+						public void run() {
+							workers.execute(completion);
+						}
+					}, wait, TimeUnit.MILLISECONDS);
+				}
+			}
+		});
+		return completion;
+	}
+
+	/**
+	 * Stop the worker threads once all submitted test cases have finished
+	 */
+	public void shutdown() {
+		timedPhase.shutdown();
+		workers.shutdown();
+	}
+
+	private TestResult newTestResult(TestCase testcase) {
+		return new TestResult(SPTestRunner.getTestCaseName(testcase))
+				.withDescription(testcase.getDescription())
+				.isMandatory(testcase.isMandatory());
+	}
+}
@@ -0,0 +1,183 @@
+package saml2webssotest.sp;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import saml2webssotest.common.TestResult;
+import saml2webssotest.common.TestSuite;
+
+/**
+ * Runs a test suite together with the test suites it depends on.
+ *
+ * The dependencies of the test suites are combined into a single graph in which each test suite
+ * (identified by its class) occurs only once, even if several test suites depend on it. Each test suite
+ * is started as soon as all of its dependencies have finished, so independent test suites are run at
+ * the same time. The results of each test suite are kept, so a test suite that occurs more than once
+ * is run only once and its results are stored only once.
+ *
+ * @author RiaasM
+ *
+ */
+public class TestSuiteScheduler {
+	/**
+	 * Is notified of the results of each test suite as soon as that test suite has finished
+	 */
+	public interface Listener {
+		/**
+		 * Called when a test suite has finished. This may be called from several threads at the same time.
+		 * 
+		 * @param suiteName is the name of the test suite
+		 * @param results are the results of the test cases in the test suite
+		 */
+		void suiteFinished(String suiteName, List<TestResult> results);
+	}
+
+	/**
+	 * Logger for this class
+	 */
+	private final Logger logger = LoggerFactory.getLogger(TestSuiteScheduler.class);
+	/**
+	 * The executor on which the test cases of each test suite are run
+	 */
+	private final TestCaseExecutor executor;
+	/**
+	 * The test suites in the graph, in an order where each test suite comes after its dependencies
+	 */
+	private final LinkedHashMap<Class<?>, TestSuite> suites = new LinkedHashMap<Class<?>, TestSuite>();
+	/**
+	 * The dependencies of each test suite in the graph
+	 */
+	private final Map<Class<?>, List<Class<?>>> dependencies = new LinkedHashMap<Class<?>, List<Class<?>>>();
+
+	/**
+	 * Create a scheduler that runs the test cases of the test suites on the given executor
+	 *
+	 * @param executor is the executor on which the test cases are run
+	 */
+	public TestSuiteScheduler(TestCaseExecutor executor) {
+		this.executor = executor;
+	}
+
+	/**
+	 * Run the test suite and, if requested, the test suites it depends on.
+	 *
+	 * @param runner is the test runner that runs the test cases and stores the results
+	 * @param suite is the test suite that should be run
+	 * @param recursive determines if the test suites that the test suite depends on should be run as well
+	 * @return the results of each test suite, by test suite name, in the order in which they should be reported
+	 */
+	public Map<String, List<TestResult>> run(SPTestRunner runner, TestSuite suite, boolean recursive) {
+		return run(runner, suite, recursive, null);
+	}
+
+	/**
+	 * Run the test suite and, if requested, the test suites it depends on.
+	 *
+	 * @param runner is the test runner that runs the test cases and stores the results
+	 * @param suite is the test suite that should be run
+	 * @param recursive determines if the test suites that the test suite depends on should be run as well
+	 * @param listener is notified of the results of each test suite as soon as it has finished, may be null
+	 * @return the results of each test suite, by test suite name, in the order in which they should be reported
+	 */
+	public Map<String, List<TestResult>> run(final SPTestRunner runner, TestSuite suite, boolean recursive, final Listener listener) {
+		suites.clear();
+		dependencies.clear();
+		addSuite(suite, recursive, new HashSet<Class<?>>());
+
+		// start each test suite on its own thread, where it will wait for its dependencies to finish
+		ExecutorService suiteThreads = Executors.newCachedThreadPool();
+		final LinkedHashMap<Class<?>, Future<List<TestResult>>> running = new LinkedHashMap<Class<?>, Future<List<TestResult>>>();
+		try {
+			for (final Map.Entry<Class<?>, TestSuite> entry : suites.entrySet()) {
+				final List<Future<List<TestResult>>> waitFor = new ArrayList<Future<List<TestResult>>>();
+				for (Class<?> dependency : dependencies.get(entry.getKey())) {
+					waitFor.add(running.get(dependency));
+				}
+				running.put(entry.getKey(), suiteThreads.submit(new Callable<List<TestResult>>() {
+					@Override
+					public List<TestResult> call() throws Exception {
+						for (Future<List<TestResult>> dependency : waitFor) {
+							try {
+								dependency.get();
+							} catch (ExecutionException e) {
+								// a test suite does not need the results of its dependencies, so it can still be run
+								logger.debug("A dependency of " + entry.getKey().getSimpleName() + " could not be completed", e);
+							}
+						}
+						logger.info("Running testsuite " + entry.getKey().getSimpleName());
+						List<TestResult> results = executor.execute(runner, runner.loadTestCases(entry.getValue()));
+						if (listener != null) {
+							listener.suiteFinished(entry.getKey().getSimpleName(), results);
+						}
+						return results;
+					}
+				}));
+			}
+
+			// collect the results in the order of the graph, so they are reported in the same order for every run
+			LinkedHashMap<String, List<TestResult>> results = new LinkedHashMap<String, List<TestResult>>();
+			for (Map.Entry<Class<?>, Future<List<TestResult>>> entry : running.entrySet()) {
+				String suiteName = entry.getKey().getSimpleName();
+				try {
+					results.put(suiteName, entry.getValue().get());
+				} catch (ExecutionException e) {
+					logger.error("The testsuite " + suiteName + " could not be completed", e.getCause());
+					results.put(suiteName, Collections.<TestResult>emptyList());
+				} catch (InterruptedException e) {
+					logger.error("Interrupted while waiting for the testsuite " + suiteName, e);
+					Thread.currentThread().interrupt();
+					break;
+				}
+			}
+			return results;
+		} finally {
+			suiteThreads.shutdownNow();
+		}
+	}
+
+	/**
+	 * Add the test suite to the graph, after the test suites it depends on
+	 *
+	 * @param suite is the test suite that should be added
+	 * @param recursive determines if the test suites that the test suite depends on should be added as well
+	 * @param visiting contains the test suites whose dependencies are currently being added, used to detect cycles
+	 */
+	private void addSuite(TestSuite suite, boolean recursive, Set<Class<?>> visiting) {
+		Class<?> suiteClass = suite.getClass();
+		if (suites.containsKey(suiteClass)) {
+			// this test suite was already added for a different test suite that depends on it
+			return;
+		}
+		ArrayList<Class<?>> suiteDependencies = new ArrayList<Class<?>>();
+		if (recursive) {
+			visiting.add(suiteClass);
+			for (TestSuite dependency : suite.getDependencies()) {
+				Class<?> dependencyClass = dependency.getClass();
+				if (visiting.contains(dependencyClass)) {
+					logger.error("The testsuite " + suiteClass.getSimpleName() + " has a circular dependency on " + dependencyClass.getSimpleName() + ", this dependency is ignored");
+					continue;
+				}
+				addSuite(dependency, recursive, visiting);
+				if (!suiteDependencies.contains(dependencyClass)) {
+					suiteDependencies.add(dependencyClass);
+				}
+			}
+			visiting.remove(suiteClass);
+		}
+		suites.put(suiteClass, suite);
+		dependencies.put(suiteClass, suiteDependencies);
+	}
+}
@@ -0,0 +1,96 @@
+package saml2webssotest.sp;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jetty.util.component.AbstractLifeCycle;
+import org.eclipse.jetty.util.thread.ThreadPool;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A thread pool for the mock server that runs every task on its own virtual thread.
+ *
+ * Virtual threads are only available on newer JVMs, so they are looked up when the pool is
+ * started. If they are not available, the pool falls back to an unbounded pool of platform threads,
+ * which behaves the same way but uses more memory for each concurrent login attempt.
+ *
+ * @author RiaasM
+ *
+ */
+public class VirtualThreadPool extends AbstractLifeCycle implements ThreadPool {
+	/**
+	 * Logger for this class
+	 */
+	private static final Logger logger = LoggerFactory.getLogger(VirtualThreadPool.class);
+	/**
+	 * The executor on which the tasks are run, only available while the pool is started
+	 */
+	private volatile ExecutorService executor;
+
+	/**
+	 * Create an executor that starts a new virtual thread for each task.
+	 *
+	 * @return the virtual-thread executor, or a cached thread pool if the JVM does not support virtual threads
+	 */
+	public static ExecutorService newExecutor() {
+		try {
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (NoSuchMethodException e) {
+			logger.warn("Virtual threads are not supported by this JVM, using platform threads instead");
+		} catch (IllegalAccessException | InvocationTargetException e) {
+			logger.warn("Virtual threads could not be enabled, using platform threads instead", e);
+		}
+		return Executors.newCachedThreadPool();
+	}
+
+	@Override
+	protected void doStart() throws Exception {
+		executor = newExecutor();
+		super.doStart();
+	}
+
+	@Override
+	protected void doStop() throws Exception {
+		super.doStop();
+		executor.shutdownNow();
+	}
+
+	@Override
+	public void execute(Runnable task) {
+		if (executor == null) {
+			throw new IllegalStateException("The thread pool has not been started");
+		}
+		executor.execute(task);
+	}
+
+	@Override
+	public void join() throws InterruptedException {
+		if (executor != null) {
+			executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Virtual threads are created on demand, so the pool does not keep any threads of its own
+	 */
+	@Override
+	public int getThreads() {
+		return 0;
+	}
+
+	@Override
+	public int getIdleThreads() {
+		return 0;
+	}
+
+	/**
+	 * A new thread is created for every task, so the pool is never low on threads
+	 */
+	@Override
+	public boolean isLowOnThreads() {
+		return false;
+	}
+}
@@ -0,0 +1,130 @@
+package saml2webssotest.sp.mockIdPHandlers;
+
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLDecoder;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.http.HttpStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.gargoylesoftware.htmlunit.FormEncodingType;
+import com.gargoylesoftware.htmlunit.HttpMethod;
+import com.gargoylesoftware.htmlunit.WebClient;
+import com.gargoylesoftware.htmlunit.WebRequest;
+import com.gargoylesoftware.htmlunit.WebResponse;
+import com.gargoylesoftware.htmlunit.WebResponseData;
+import com.gargoylesoftware.htmlunit.util.NameValuePair;
+import com.gargoylesoftware.htmlunit.util.WebConnectionWrapper;
+
+import saml2webssotest.sp.RunContext;
+
+/**
+ * Lets a browser reach the mock IdP without going through the network.
+ *
+ * The connection is installed on the browser and passes the requests for the mock IdP directly to the
+ * {@link SamlWebSSOHandler#process(SSORequestContext)} method, in the thread of the browser. All other requests
+ * are sent to the target SP as usual. The mock IdP is recognized by the host, port and path of its URL, so the
+ * mock IdP does not need to listen on that URL.
+ *
+ * @author RiaasM
+ *
+ */
+public class InProcessConnection extends WebConnectionWrapper {
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private final Logger logger = LoggerFactory.getLogger(InProcessConnection.class);
+	/**
+	 * The context of the test run, which contains the URL of the mock IdP
+	 */
+	private final RunContext runContext;
+	/**
+	 * The handler that acts as the mock IdP
+	 */
+	private final SamlWebSSOHandler handler;
+
+	/**
+	 * Install the connection on the given browser
+	 *
+	 * @param browser is the browser that should reach the mock IdP in-process
+	 * @param runContext is the context of the test run
+	 * @param handler is the handler that acts as the mock IdP
+	 */
+	public InProcessConnection(WebClient browser, RunContext runContext, SamlWebSSOHandler handler) {
+		super(browser);
+		this.runContext = runContext;
+		this.handler = handler;
+	}
+
+	@Override
+	public WebResponse getResponse(WebRequest request) throws IOException {
+		if (!isMockServer(request.getUrl())) {
+			return super.getResponse(request);
+		}
+		long start = System.currentTimeMillis();
+		// the parameters in the URL come first, like they do for the mock server
+		HashMap<String, String> parameters = new HashMap<String, String>();
+		addParameters(parameters, request.getUrl().getRawQuery());
+		if (request.getHttpMethod() == HttpMethod.POST) {
+			for (NameValuePair param : request.getRequestParameters()) {
+				if (!parameters.containsKey(param.getName())) {
+					parameters.put(param.getName(), param.getValue());
+				}
+			}
+			if (request.getEncodingType() == FormEncodingType.URL_ENCODED) {
+				addParameters(parameters, request.getRequestBody());
+			}
+		}
+		SSORequestContext context = new SSORequestContext(request.getHttpMethod().name(), parameters, request.getAdditionalHeaders());
+
+		try {
+			handler.process(context);
+		} catch (RuntimeException e) {
+			logger.error("The mock IdP could not process the request", e);
+			context.respond(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, null, "");
+		}
+
+		// create the response that the mock server would have sent
+		int status = context.getResponseStatus() == 0 ? HttpServletResponse.SC_OK : context.getResponseStatus();
+		ArrayList<NameValuePair> headers = new ArrayList<NameValuePair>();
+		if (context.getResponseContentType() != null) {
+			headers.add(new NameValuePair("Content-Type", context.getResponseContentType() + "; charset=" + UTF8.name()));
+		}
+		String body = context.getResponseBody() == null ? "" : context.getResponseBody();
+		WebResponseData data = new WebResponseData(body.getBytes(UTF8), status, HttpStatus.getMessage(status), headers);
+		return new WebResponse(data, request, System.currentTimeMillis() - start);
+	}
+
+	private boolean isMockServer(URL url) {
+		URL mockServerURL = runContext.getMockServerURL();
+		return mockServerURL != null
+				&& url.getAuthority().equalsIgnoreCase(mockServerURL.getAuthority())
+				&& url.getPath().startsWith(mockServerURL.getPath());
+	}
+
+	/**
+	 * Add the URL-encoded parameters to the given parameters, unless a parameter with the same name is already present
+	 */
+	private static void addParameters(Map<String, String> parameters, String encoded) throws IOException {
+		if (encoded == null || encoded.isEmpty()) {
+			return;
+		}
+		for (String pair : encoded.split("&")) {
+			if (pair.isEmpty()) {
+				continue;
+			}
+			int separator = pair.indexOf('=');
+			String name = URLDecoder.decode(separator < 0 ? pair : pair.substring(0, separator), UTF8.name());
+			String value = separator < 0 ? "" : URLDecoder.decode(pair.substring(separator + 1), UTF8.name());
+			if (!parameters.containsKey(name)) {
+				parameters.put(name, value);
+			}
+		}
+	}
+}
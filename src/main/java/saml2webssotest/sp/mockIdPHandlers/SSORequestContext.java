@@ -0,0 +1,171 @@
+package saml2webssotest.sp.mockIdPHandlers;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+import saml2webssotest.common.StringPair;
+import saml2webssotest.sp.LoginAttempt;
+import saml2webssotest.sp.LoginExchange;
+
+/**
+ * Contains everything the mock IdP knows about a single request it received, as well as the
+ * response it will send for it.
+ *
+ * A new context is created for every request, so requests that are handled at the same time
+ * never share any state.
+ *
+ * @author RiaasM
+ *
+ */
+public class SSORequestContext {
+	/**
+	 * The HTTP method of the request
+	 */
+	private final String method;
+	/**
+	 * The GET or POST parameters of the request
+	 */
+	private final Map<String, String> parameters;
+	/**
+	 * The HTTP headers of the request, with case-insensitive names
+	 */
+	private final Map<String, String> headers = new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER);
+	/**
+	 * The exchange with the test case that made the login attempt
+	 */
+	private LoginExchange exchange;
+	/**
+	 * The login attempt this request belongs to
+	 */
+	private LoginAttempt attempt;
+	/**
+	 * The decoded SAML Request, if one was received
+	 */
+	private String samlRequest;
+	/**
+	 * The ID of the received SAML Request
+	 */
+	private String requestID;
+	/**
+	 * The binding with which the SAML Request was received
+	 */
+	private String requestBinding;
+	/**
+	 * The location and binding of the ACS to which the SAML Response should be sent
+	 */
+	private StringPair applicableACS;
+	/**
+	 * Whether the SAML Response was requested with the Artifact binding
+	 */
+	private boolean returnArtifact;
+	/**
+	 * The HTTP status code of the response
+	 */
+	private int responseStatus;
+	/**
+	 * The content type of the response
+	 */
+	private String responseContentType;
+	/**
+	 * The body of the response
+	 */
+	private String responseBody = "";
+
+	public SSORequestContext(String method, Map<String, String> parameters, Map<String, String> headers) {
+		this.method = method;
+		this.parameters = parameters;
+		this.headers.putAll(headers);
+	}
+
+	/**
+	 * Retrieve a GET or POST parameter from the request
+	 *
+	 * @param name is the name of the parameter
+	 * @return the value of the parameter, or null if it was not provided
+	 */
+	public String getParameter(String name) {
+		return parameters.get(name);
+	}
+
+	/**
+	 * Retrieve an HTTP header from the request
+	 *
+	 * @param name is the (case-insensitive) name of the header
+	 * @return the value of the header, or null if it was not provided
+	 */
+	public String getHeader(String name) {
+		return headers.get(name);
+	}
+
+	/**
+	 * Set the response that should be sent for this request
+	 *
+	 * @param status is the HTTP status code
+	 * @param contentType is the content type, or null if there is no content
+	 * @param body is the body of the response
+	 */
+	public void respond(int status, String contentType, String body) {
+		responseStatus = status;
+		responseContentType = contentType;
+		responseBody = body;
+	}
+
+	/*
+	 * Simple getters and setters
+	 */
+
+	public String getMethod() {
+		return method;
+	}
+	public LoginExchange getExchange() {
+		return exchange;
+	}
+	public void setExchange(LoginExchange exchange) {
+		this.exchange = exchange;
+	}
+	public LoginAttempt getAttempt() {
+		return attempt;
+	}
+	public void setAttempt(LoginAttempt attempt) {
+		this.attempt = attempt;
+	}
+	public String getSamlRequest() {
+		return samlRequest;
+	}
+	public void setSamlRequest(String samlRequest) {
+		this.samlRequest = samlRequest;
+	}
+	public String getRequestID() {
+		return requestID;
+	}
+	public void setRequestID(String requestID) {
+		this.requestID = requestID;
+	}
+	public String getRequestBinding() {
+		return requestBinding;
+	}
+	public void setRequestBinding(String requestBinding) {
+		this.requestBinding = requestBinding;
+	}
+	public StringPair getApplicableACS() {
+		return applicableACS;
+	}
+	public void setApplicableACS(StringPair applicableACS) {
+		this.applicableACS = applicableACS;
+	}
+	public boolean isReturnArtifact() {
+		return returnArtifact;
+	}
+	public void setReturnArtifact(boolean returnArtifact) {
+		this.returnArtifact = returnArtifact;
+	}
+	public int getResponseStatus() {
+		return responseStatus;
+	}
+	public String getResponseContentType() {
+		return responseContentType;
+	}
+	public String getResponseBody() {
+		return responseBody;
+	}
+}
@@ -3,21 +3,13 @@ package saml2webssotest.sp.testsuites;
 import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.security.GeneralSecurityException;
-import java.security.cert.CertificateException;
-import java.security.cert.X509Certificate;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.UUID;
 
-import javax.net.ssl.HttpsURLConnection;
-import javax.net.ssl.SSLContext;
-import javax.net.ssl.TrustManager;
-import javax.net.ssl.X509TrustManager;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
 
-import org.opensaml.Configuration;
 import org.opensaml.common.xml.SAMLConstants;
 import org.opensaml.saml1.core.AttributeValue;
 import org.opensaml.saml2.core.Assertion;
@@ -57,8 +49,9 @@ import saml2webssotest.common.SAMLUtil;
 import saml2webssotest.common.StandardNames;
 import saml2webssotest.common.StringPair;
 import saml2webssotest.common.TestSuite;
+import saml2webssotest.sp.OpenSAMLRuntime;
 import saml2webssotest.sp.SPConfiguration;
-import saml2webssotest.sp.SPTestRunner;
+import saml2webssotest.sp.TLSAnalysis;
 
 
 public class SAML2Int extends SPTestSuite {
@@ -399,7 +392,7 @@ public class SAML2Int extends SPTestSuite {
 		@Override
 		public boolean checkLogin() {
 			// get a browser to test in
-			WebClient browser = SPTestRunner.getInstance().getNewBrowser();
+			WebClient browser = getRunner().getNewBrowser();
 			/**
 			 * Create the Response we wish the mock IdP to return 
 			 */
@@ -410,7 +403,7 @@ public class SAML2Int extends SPTestSuite {
 			
 			for (Assertion assertion : assertionsTransient){
 				// create nameid with transient format
-				NameID nameid = (NameID) Configuration.getBuilderFactory().getBuilder(NameID.DEFAULT_ELEMENT_NAME).buildObject(NameID.DEFAULT_ELEMENT_NAME);
+				NameID nameid = OpenSAMLRuntime.get().getNameIDBuilder().buildObject();
 				nameid.setValue("_"+UUID.randomUUID().toString());
 				nameid.setFormat(NameID.TRANSIENT);
 				assertion.getSubject().setNameID(nameid);
@@ -425,18 +418,18 @@ public class SAML2Int extends SPTestSuite {
 			// convert the Response to a String
 			String responseTransient = SAMLUtil.toXML(response);
 			// store the response in the test runner so the mock IdP can use it
-			SPTestRunner.getInstance().setSamlResponse(responseTransient);
+			getRunner().setSamlResponse(responseTransient);
 			
 			/**
 			 * Attempt to log in
 			 */
-			Boolean loginTransient = SPTestRunner.getInstance().attemptLogin(browser, true);
-			SPTestRunner.getInstance().setSamlResponse(null);
+			Boolean loginTransient = getRunner().attemptLogin(browser, true);
+			getRunner().setSamlResponse(null);
 			
 			/**
 			 * Reset the browser so we can try another login attempt
 			 */
-			browser = SPTestRunner.getInstance().getNewBrowser();
+			browser = getRunner().getNewBrowser();
 
 			/**
 			 * Create the Response we wish the mock IdP to return this time
@@ -446,7 +439,7 @@ public class SAML2Int extends SPTestSuite {
 			List<Assertion> assertionsPersistent = response2.getAssertions();
 			for (Assertion assertion : assertionsPersistent){
 				// set nameid to persistent format
-				NameID nameid = (NameID) Configuration.getBuilderFactory().getBuilder(NameID.DEFAULT_ELEMENT_NAME).buildObject(NameID.DEFAULT_ELEMENT_NAME);
+				NameID nameid = OpenSAMLRuntime.get().getNameIDBuilder().buildObject();
 				nameid.setValue("_"+UUID.randomUUID().toString());
 				nameid.setFormat(NameID.PERSISTENT);
 				assertion.getSubject().setNameID(nameid);
@@ -461,13 +454,13 @@ public class SAML2Int extends SPTestSuite {
 			// convert the Response to a string
 			String responsePersistent = SAMLUtil.toXML(response2);
 			// store the response in the test runner so the mock IdP can use it
-			SPTestRunner.getInstance().setSamlResponse(responsePersistent);
+			getRunner().setSamlResponse(responsePersistent);
 			
 			/**
 			 * Complete this second login attempt
 			 */
-			Boolean loginPersistent = SPTestRunner.getInstance().attemptLogin(browser, true);
-			SPTestRunner.getInstance().setSamlResponse(null);
+			Boolean loginPersistent = getRunner().attemptLogin(browser, true);
+			getRunner().setSamlResponse(null);
 
 			/**
 			 * Check the results of the login attempts
@@ -527,7 +520,7 @@ public class SAML2Int extends SPTestSuite {
 		@Override
 		public boolean checkLogin() {
 			// get a browser to test in
-			WebClient browser = SPTestRunner.getInstance().getNewBrowser();
+			WebClient browser = getRunner().getNewBrowser();
 			
 			/**
 			 * Create the Response we wish the mock IdP to return
@@ -537,7 +530,7 @@ public class SAML2Int extends SPTestSuite {
 			List<Assertion> assertions = response.getAssertions();
 			for (Assertion assertion : assertions){
 				// create nameid with transient format
-				NameID nameid = (NameID) Configuration.getBuilderFactory().getBuilder(NameID.DEFAULT_ELEMENT_NAME).buildObject(NameID.DEFAULT_ELEMENT_NAME);
+				NameID nameid = OpenSAMLRuntime.get().getNameIDBuilder().buildObject();
 				nameid.setValue("_"+UUID.randomUUID().toString());
 				nameid.setFormat(NameID.TRANSIENT);
 				assertion.getSubject().setNameID(nameid);
@@ -550,12 +543,12 @@ public class SAML2Int extends SPTestSuite {
 			// with a placeholder for the ACS URL which is the intended value
 			response.setDestination(PLACEHOLDER_ACSURL);
 			String responseIdPInitiated = SAMLUtil.toXML(response);
-			SPTestRunner.getInstance().setSamlResponse(responseIdPInitiated);
+			getRunner().setSamlResponse(responseIdPInitiated);
 			
 			/**
 			 * Attempt to log in
 			 */
-			Boolean loginIdPInitiated = SPTestRunner.getInstance().attemptLogin(browser, false);
+			Boolean loginIdPInitiated = getRunner().attemptLogin(browser, false);
 			
 			/**
 			 * Check the result of the login attempt
@@ -1003,59 +996,30 @@ public class SAML2Int extends SPTestSuite {
 				NodeList ACSs = metadata.getElementsByTagNameNS(SAMLConstants.SAML20MD_NS, AssertionConsumerService.DEFAULT_ELEMENT_LOCAL_NAME);
 				// check if there is at least one ACS
 				if(ACSs.getLength() > 0){
-					// check for each ACS if they are using TLS/SSL
-					int HTTPScount = 0;
+					// start analyzing all ACSs at the same time, with the TLS analyzer of the test run
+					ArrayList<URL> ACSLocURLs = new ArrayList<URL>();
 					for (int i = 0; i < ACSs.getLength(); i++){
 						Node ACS = ACSs.item(i);
 						String ACSLoc = ACS.getAttributes().getNamedItem(IndexedEndpoint.LOCATION_ATTRIB_NAME).getNodeValue();
 						try {
 							URL ACSLocURL = new URL(ACSLoc);
-							if (ACSLocURL.getProtocol().equalsIgnoreCase("https")){
-								// Create a trust manager that does not validate certificate chains since we are not 
-								// trying to test the certificate validity
-								TrustManager[] trustAllCerts = new TrustManager[] { 
-								    new X509TrustManager() {
-										
-										@Override
-										public X509Certificate[] getAcceptedIssuers() {
-											return new X509Certificate[0];
-										}
-										
-										@Override
-										public void checkServerTrusted(X509Certificate[] chain, String authType) throws CertificateException {				
-										}
-										
-										@Override
-										public void checkClientTrusted(X509Certificate[] chain, String authType) throws CertificateException {
-										}
-									}};
-
-								// Install the all-trusting trust manager
-								try {
-								    SSLContext sc = SSLContext.getInstance("SSL"); 
-								    sc.init(null, trustAllCerts, new java.security.SecureRandom()); 
-								    HttpsURLConnection.setDefaultSSLSocketFactory(sc.getSocketFactory());
-								} catch (GeneralSecurityException e) {
-								} 
-								// connect to the URL to retrieve which cipher is actually used
-								HttpsURLConnection acsConn = (HttpsURLConnection) ACSLocURL.openConnection();
-								acsConn.connect();
-								String cipher = acsConn.getCipherSuite();
-								acsConn.disconnect();
-								// check if cipher belongs to TLS or SSL v3.0 protocol
-								if (cipher.startsWith("TLS_")){
-									// accept all TLS ciphers
-									HTTPScount++;
-								}
-								else if (StandardNames.sslv3.contains(cipher)){
-									// cipher is part of SSLv3 protocol
-									HTTPScount++;
-								}
-							}
+							getContext().getTLSAnalyzer().analyze(ACSLocURL);
+							ACSLocURLs.add(ACSLocURL);
 						} catch (MalformedURLException e) {
 							logger.debug("The Service Provider's metadata contains at least one malformed Assertion Consumer Service Locations URL", e);						
-						} catch (IOException e) {
-							logger.debug("The Service Provider's metadata could not be accessed", e);
+						}
+					}
+					// check for each ACS if they are using TLS/SSL
+					int HTTPScount = 0;
+					for (URL ACSLocURL : ACSLocURLs){
+						// the analysis does not validate certificate chains, so this only checks which protocol is actually used
+						TLSAnalysis analysis = getContext().getTLSAnalyzer().getAnalysis(ACSLocURL);
+						if (analysis.isSecure() && !analysis.isConnected()){
+							logger.debug("The Assertion Consumer Service could not be accessed: " + analysis.getError());
+						}
+						// check if the protocol is TLS or SSL v3.0
+						else if (analysis.usesSSLv3OrTLS()){
+							HTTPScount++;
 						}
 					}
 					if (HTTPScount == 0){
@@ -1692,7 +1656,7 @@ public class SAML2Int extends SPTestSuite {
 		public boolean checkRequest(String request, String binding) {
 			Node acsURL = SAMLUtil.fromXML(request).getDocumentElement().getAttributes().getNamedItem(AuthnRequest.ASSERTION_CONSUMER_SERVICE_URL_ATTRIB_NAME);
 			if (acsURL != null){
-				NodeList acss = SPTestRunner.getInstance().getSPConfig().getMetadata().getElementsByTagNameNS(SAMLConstants.SAML20MD_NS, AssertionConsumerService.DEFAULT_ELEMENT_LOCAL_NAME);
+				NodeList acss = getContext().getSPConfig().getMetadata().getElementsByTagNameNS(SAMLConstants.SAML20MD_NS, AssertionConsumerService.DEFAULT_ELEMENT_LOCAL_NAME);
 				// check if acsURL is available as location in the list of acs's 
 				// when comparing the URL's directly as strings without compensating for canonicalization 
 				for (int i = 0; i < acss.getLength(); i++){
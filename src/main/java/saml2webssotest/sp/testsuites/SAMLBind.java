@@ -11,7 +11,6 @@ import com.gargoylesoftware.htmlunit.WebClient;
 
 import saml2webssotest.common.SAMLUtil;
 import saml2webssotest.common.TestSuite;
-import saml2webssotest.sp.SPTestRunner;
 
 
 public class SAMLBind extends SPTestSuite {
@@ -56,7 +55,7 @@ public class SAMLBind extends SPTestSuite {
 		@Override
 		public boolean checkLogin() {
 			// get a browser to test in
-			WebClient browser = SPTestRunner.getInstance().getNewBrowser();
+			WebClient browser = getRunner().getNewBrowser();
 			// define the variables that can be used to store the components of the Response messages
 			Response response;
 			List<Assertion> assertions;
@@ -66,12 +65,8 @@ public class SAMLBind extends SPTestSuite {
 			 * Check if the target SP allows a login attempt if the Destination attribute is valid
 			 */
 
-			response = createMinimalWebSSOResponse(PLACEHOLDER_REQUESTID, PLACEHOLDER_ACSURL);
-			assertion = response.getAssertions().get(0);
-			addTargetSPAttributes(assertion);
-			SAMLUtil.sign(assertion, getX509Credentials(null));
-			SPTestRunner.getInstance().setSamlResponse(SAMLUtil.toXML(response));
-			Boolean loginValidDestination = SPTestRunner.getInstance().attemptLogin(browser, true);
+			getRunner().setResponseFactory(new MinimalResponseFactory());
+			Boolean loginValidDestination = getRunner().attemptLogin(browser, true);
 
 			if (loginValidDestination == null) {
 				resultMessage = "The login attempt could not be completed";
@@ -87,7 +82,7 @@ public class SAMLBind extends SPTestSuite {
 			 * Check if the target SP rejects a login attempt when the Destination attribute is invalid
 			 */
 
-			browser = SPTestRunner.getInstance().getNewBrowser();
+			browser = getRunner().getNewBrowser();
 			response = null;
 			assertions = null;
 			assertion = null;
@@ -106,10 +101,10 @@ public class SAMLBind extends SPTestSuite {
 			// convert the Response to a String
 			String responseString = SAMLUtil.toXML(response);
 			// store the response in the test runner so the mock IdP can use it
-			SPTestRunner.getInstance().setSamlResponse(responseString);
+			getRunner().setSamlResponse(responseString);
 			//Attempt to log in 
-			Boolean login = SPTestRunner.getInstance().attemptLogin(browser, true);
-			SPTestRunner.getInstance().setSamlResponse(null);
+			Boolean login = getRunner().attemptLogin(browser, true);
+			getRunner().setSamlResponse(null);
 			
 			/**
 			 * Check the results of the login attempts
@@ -5,17 +5,19 @@ import java.net.MalformedURLException;
 import java.net.Socket;
 import java.net.URL;
 import java.net.UnknownHostException;
-import java.security.GeneralSecurityException;
-import java.security.cert.CertificateException;
-import java.security.cert.X509Certificate;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.UUID;
-
-import javax.net.ssl.HttpsURLConnection;
-import javax.net.ssl.SSLContext;
-import javax.net.ssl.TrustManager;
-import javax.net.ssl.X509TrustManager;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.joda.time.DateTime;
 import org.opensaml.common.xml.SAMLConstants;
@@ -38,10 +40,10 @@ import com.gargoylesoftware.htmlunit.WebClient;
 import com.gargoylesoftware.htmlunit.html.HtmlPage;
 
 import saml2webssotest.common.SAMLUtil;
-import saml2webssotest.common.StandardNames;
 import saml2webssotest.common.TestSuite;
+import saml2webssotest.sp.ResponseFactory;
 import saml2webssotest.sp.SPConfiguration;
-import saml2webssotest.sp.SPTestRunner;
+import saml2webssotest.sp.TLSAnalysis;
 
 public class SAMLProf_WebSSO extends SPTestSuite {
 	/**
@@ -97,45 +99,20 @@ public class SAMLProf_WebSSO extends SPTestSuite {
 					return false;
 				}
 				
-				// Create a trust manager that does not validate certificate chains since we don't care 
-				// about certificate validy but about the used protocol
-				TrustManager[] trustAllCerts = new TrustManager[] { 
-				    new X509TrustManager() {
-						
-						@Override
-						public X509Certificate[] getAcceptedIssuers() {
-							return new X509Certificate[0];
-						}
-						
-						@Override
-						public void checkServerTrusted(X509Certificate[] chain, String authType) throws CertificateException {				
-						}
-						
-						@Override
-						public void checkClientTrusted(X509Certificate[] chain, String authType) throws CertificateException {
-						}
-					}};
-
-				// Install the all-trusting trust manager
-				try {
-				    SSLContext sc = SSLContext.getInstance("SSL"); 
-				    sc.init(null, trustAllCerts, new java.security.SecureRandom()); 
-				    HttpsURLConnection.setDefaultSSLSocketFactory(sc.getSocketFactory());
-				} catch (GeneralSecurityException e) {
-				} 
-				// connect to the URL
-				HttpsURLConnection acsConn = (HttpsURLConnection) acsURL.openConnection();
-				acsConn.connect();
-				// retrieve the cipersuite used on the connection
-				String cipher = acsConn.getCipherSuite();
-				acsConn.disconnect();
-				// check if cipher belongs to TLS or SSL v3.0 protocol
-				if (cipher.startsWith("TLS_")) {
-					// accept all TLS ciphers
+				// analyze the ACS with the TLS analyzer of the test run, which does not validate certificate chains
+				// since we don't care about certificate validity but about the used protocol
+				TLSAnalysis analysis = getContext().getTLSAnalyzer().getAnalysis(acsURL);
+				if (!analysis.isConnected()) {
+					logger.error("Could not access the AssertionConsumerService location");
+					logger.debug(analysis.getError());
+					return false;
+				}
+				// check if the negotiated protocol is TLS or SSL v3.0
+				if (analysis.getProtocol().startsWith("TLS")) {
+					// accept all TLS versions
 					resultMessage = "The Service Provider's AssertionConsumerService uses TLS 1.x";
 					return true;
-				} else if (StandardNames.sslv3.contains(cipher)) {
-					// cipher is part of SSLv3 protocol
+				} else if (analysis.usesSSLv3OrTLS()) {
 					resultMessage = "The Service Provider's AssertionConsumerService uses SSL 3.0";
 					return true;
 				} else {
@@ -146,10 +123,6 @@ public class SAMLProf_WebSSO extends SPTestSuite {
 				logger.error("The AssertionConsumerService location from the target SP's metadata is malformed");
 				logger.debug("", e);
 				return false;
-			} catch (IOException e) {
-				logger.error("Could not access the AssertionConsumerService location");
-				logger.debug("", e);
-				return false;
 			}
 
 		}
@@ -236,7 +209,7 @@ public class SAMLProf_WebSSO extends SPTestSuite {
 			// as its value
 			for (int i = 0; i < issuers.getLength(); i++) {
 				Node issue = issuers.item(i);
-				if (!issue.getTextContent().equalsIgnoreCase(SPTestRunner.getInstance().getSPConfig().getMDAttribute(EntityDescriptor.DEFAULT_ELEMENT_LOCAL_NAME, EntityDescriptor.ENTITY_ID_ATTRIB_NAME))) {
+				if (!issue.getTextContent().equalsIgnoreCase(getContext().getSPConfig().getMDAttribute(EntityDescriptor.DEFAULT_ELEMENT_LOCAL_NAME, EntityDescriptor.ENTITY_ID_ATTRIB_NAME))) {
 					resultMessage = "The Service Provider's Authentication Requests contained an Issuer that did not contain the SP's Entity ID";
 					return false;
 				}
@@ -384,7 +357,7 @@ public class SAMLProf_WebSSO extends SPTestSuite {
 		@Override
 		public boolean checkLogin() {
 			// get a browser to test in
-			WebClient browser = SPTestRunner.getInstance().getNewBrowser();
+			WebClient browser = getRunner().getNewBrowser();
 			// define the variables that can be used to store the components of the Response messages
 			Response response;
 			List<Assertion> assertions;
@@ -410,9 +383,9 @@ public class SAMLProf_WebSSO extends SPTestSuite {
 			response.setDestination(PLACEHOLDER_ACSURL);
 			// sign the Response element
 			SAMLUtil.sign(response, getX509Credentials(null));
-			SPTestRunner.getInstance().setSamlResponse(SAMLUtil.toXML(response));
+			getRunner().setSamlResponse(SAMLUtil.toXML(response));
 			// complete the login attempt 
-			Boolean loginValidSigResponse = SPTestRunner.getInstance().attemptLogin(browser, true);
+			Boolean loginValidSigResponse = getRunner().attemptLogin(browser, true);
 			// make sure a valid login attempt will succeed before continuing the test case
 			if (loginValidSigResponse == null) {
 				resultMessage = "The login attempt could not be completed";
@@ -423,12 +396,7 @@ public class SAMLProf_WebSSO extends SPTestSuite {
 			}
 			logger.debug("The Service Provider allows logins with a correctly signed Response message");
 			// reset the browser so you don't remember any login information 
-			browser = SPTestRunner.getInstance().getNewBrowser();
-			// reset the Response variables so you don't accidentally re-use old data
-			response = null;
-			assertions = null;
-			assertion = null;
-			
+			browser = getRunner().getNewBrowser();
 			response = createMinimalWebSSOResponse(PLACEHOLDER_REQUESTID, PLACEHOLDER_ACSURL);
 			assertions = response.getAssertions();
 			assertion = assertions.get(0);
@@ -443,19 +411,15 @@ public class SAMLProf_WebSSO extends SPTestSuite {
 					.replaceAll(
 							"SignatureValue>[^<]*</",
 							"SignatureValue>VGhpcyBpcyB0aGUgaW52YWxpZCBzaWduYXR1cmUgdGhhdCB3aWxsIGJlIGVuY29kZWQgaW4gQmFzZTY0IGFuZCB3aWxsIHJlcGxhY2UgdGhlIHZhbGlkIHNpZ25hdHVyZQ==</");
-			SPTestRunner.getInstance().setSamlResponse(responseInvalidSigAssertion);
+			getRunner().setSamlResponse(responseInvalidSigAssertion);
 			// make sure the signature on the assertion is not updated (becoming valid again)
-			SPTestRunner.getInstance().setSigUpdateAssertionAllowed(false);
-			Boolean loginInvalidSigAssertion = SPTestRunner.getInstance().attemptLogin(browser, true);
+			getRunner().setSigUpdateAssertionAllowed(false);
+			Boolean loginInvalidSigAssertion = getRunner().attemptLogin(browser, true);
 			// reset the sig update boolean
-			SPTestRunner.getInstance().setSigUpdateAssertionAllowed(true);
+			getRunner().setSigUpdateAssertionAllowed(true);
 			logger.debug("Finished testing with a Response that has an invalid signature in the Assertion");
 
-			browser = SPTestRunner.getInstance().getNewBrowser();
-			response = null;
-			assertions = null;
-			assertion = null;
-			
+			browser = getRunner().getNewBrowser();
 			response = createMinimalWebSSOResponse(PLACEHOLDER_REQUESTID, PLACEHOLDER_ACSURL);
 			assertions = response.getAssertions();
 			if (assertions.size() > 1) {
@@ -474,11 +438,11 @@ public class SAMLProf_WebSSO extends SPTestSuite {
 					.replaceAll(
 							"SignatureValue>[^<]*</",
 							"SignatureValue>VGhpcyBpcyB0aGUgaW52YWxpZCBzaWduYXR1cmUgdGhhdCB3aWxsIGJlIGVuY29kZWQgaW4gQmFzZTY0IGFuZCB3aWxsIHJlcGxhY2UgdGhlIHZhbGlkIHNpZ25hdHVyZQ==</");
-			SPTestRunner.getInstance().setSamlResponse(responseInvalidSigResponse);
-			SPTestRunner.getInstance().setSigUpdateResponseAllowed(false);
-			Boolean loginInvalidSigResponse = SPTestRunner.getInstance().attemptLogin(browser, true);
+			getRunner().setSamlResponse(responseInvalidSigResponse);
+			getRunner().setSigUpdateResponseAllowed(false);
+			Boolean loginInvalidSigResponse = getRunner().attemptLogin(browser, true);
 			// reset the sig update boolean
-			SPTestRunner.getInstance().setSigUpdateResponseAllowed(true);
+			getRunner().setSigUpdateResponseAllowed(true);
 			logger.debug("Finished testing with a Response that has an invalid signature in the Response");
 
 			// check the result of the login attempts with invalid signatures
@@ -541,23 +505,12 @@ public class SAMLProf_WebSSO extends SPTestSuite {
 		@Override
 		public boolean checkLogin() {
 			// get a browser to test in
-			WebClient browser = SPTestRunner.getInstance().getNewBrowser();
-			// define the variables that can be used to store the components of the Response messages
-			Response response;
-			List<Assertion> assertions;
-			Assertion assertion;
-			List<SubjectConfirmation> subConfs;
-			
+			WebClient browser = getRunner().getNewBrowser();
 			/**
 			 * Check if the target SP also allows a login attempt if the Recipient does match the ACS URL on which it was delivered
 			 */
-			response = createMinimalWebSSOResponse(PLACEHOLDER_REQUESTID, PLACEHOLDER_ACSURL);
-			assertions = response.getAssertions();
-			assertion = assertions.get(0);
-			addTargetSPAttributes(assertion);
-			SAMLUtil.sign(assertion, getX509Credentials(null));
-			SPTestRunner.getInstance().setSamlResponse(SAMLUtil.toXML(response));
-			Boolean loginValidRecipient = SPTestRunner.getInstance().attemptLogin(browser, true);
+			getRunner().setResponseFactory(new MinimalResponseFactory());
+			Boolean loginValidRecipient = getRunner().attemptLogin(browser, true);
 
 			if (loginValidRecipient == null) {
 				logger.debug("The login attempt could not be completed");
@@ -572,25 +525,20 @@ public class SAMLProf_WebSSO extends SPTestSuite {
 			/**
 			 * Check if the target SP rejects a login attempt when the Recipient does not match the ACS URL on which it was delivered
 			 */
-			browser = SPTestRunner.getInstance().getNewBrowser();
-			response = null;
-			assertions = null;
-			assertion = null;
-			subConfs = null;
+			browser = getRunner().getNewBrowser();
 			
-			response = createMinimalWebSSOResponse(PLACEHOLDER_REQUESTID, PLACEHOLDER_ACSURL);
-			assertions = response.getAssertions();
-			assertion = assertions.get(0);
-			subConfs = assertion.getSubject().getSubjectConfirmations();
-			for (SubjectConfirmation subConf : subConfs) {
-				SubjectConfirmationData subConfData = (SubjectConfirmationData) subConf.getSubjectConfirmationData();
-				// set the recipient to an invalid location (that is still a valid URL)
-				subConfData.setRecipient("http://www.topdesk.com/");
-			}
-			addTargetSPAttributes(assertion);
-			SAMLUtil.sign(assertion, getX509Credentials(null));
-			SPTestRunner.getInstance().setSamlResponse(SAMLUtil.toXML(response));
-			Boolean loginInvalidRecipient = SPTestRunner.getInstance().attemptLogin(browser, true);
+			getRunner().setResponseFactory(new MinimalResponseFactory() {
+				@Override
+				protected void customize(Response response, Assertion assertion) {
+					List<SubjectConfirmation> subConfs = assertion.getSubject().getSubjectConfirmations();
+					for (SubjectConfirmation subConf : subConfs) {
+						SubjectConfirmationData subConfData = (SubjectConfirmationData) subConf.getSubjectConfirmationData();
+						// set the recipient to an invalid location (that is still a valid URL)
+						subConfData.setRecipient("http://www.topdesk.com/");
+					}
+				}
+			});
+			Boolean loginInvalidRecipient = getRunner().attemptLogin(browser, true);
 
 			if (loginInvalidRecipient == null) {
 				resultMessage = "The login attempt could not be completed";
@@ -617,11 +565,11 @@ public class SAMLProf_WebSSO extends SPTestSuite {
 	 * Tested by trying to log in to the target SP with:
 	 * 	- A Response that has a valid NotOnOrAfter time (4 times the clock skew + 1 second)
 	 * 		- This should log in correctly
-	 * 	- a Response that has a NotOnOrAfter time set to now. We also wait for the allowable clock skew to no longer 
-	 * 	be able to affect the validity of the Response
+	 * 	- a Response that has a NotOnOrAfter time set to the time it was created, which is back-dated by the allowable 
+	 * 	clock skew (+ 1 second) so the clock skew can no longer affect the validity of the Response
 	 * 		- This should fail to log in
-	 * 	- A Response that has a valid NotOnOrAfter time (4 times the clock skew + 1 second) but wait till the last
-	 * second to actually log in
+	 * 	- A Response that has a valid NotOnOrAfter time (4 times the clock skew + 1 second) but is back-dated so it is 
+	 * only used in the last part of its validity period
 	 * 		- This should log in correctly
 	 * 
 	 * @author RiaasM
@@ -647,32 +595,25 @@ public class SAMLProf_WebSSO extends SPTestSuite {
 		@Override
 		public boolean checkLogin() {
 			// get a browser to test in
-			WebClient browser = SPTestRunner.getInstance().getNewBrowser();
-			// define the variables that can be used to store the components of the Response messages
-			Response response;
-			List<Assertion> assertions;
-			Assertion assertion;
-			List<SubjectConfirmation> subConfs;
-			
+			WebClient browser = getRunner().getNewBrowser();
 			/**
 			 * Check if the target SP allows a login attempt if the NotOnOrAfter time is valid
 			 */
 			// retrieve the clock skew for the target SP so the validity period can be set to a value 
 			// related to the uncertainty in communication that the clock skew indicates
-			int clockskewMS = SPTestRunner.getInstance().getSPConfig().getClockSkew();
-
-			response = createMinimalWebSSOResponse(PLACEHOLDER_REQUESTID, PLACEHOLDER_ACSURL);
-			assertions = response.getAssertions();
-			assertion = assertions.get(0);
-			subConfs = assertion.getSubject().getSubjectConfirmations();
-			for (SubjectConfirmation subConf : subConfs) {
-				// set the validity period to 4 times the clock skew plus 1 second
-				subConf.getSubjectConfirmationData().setNotOnOrAfter(DateTime.now().plusMillis(4 * clockskewMS + 1000));
-			}
-			addTargetSPAttributes(assertion);
-			SAMLUtil.sign(assertion, getX509Credentials(null));
-			SPTestRunner.getInstance().setSamlResponse(SAMLUtil.toXML(response));
-			Boolean loginValidNOOA = SPTestRunner.getInstance().attemptLogin(browser, true);
+			final int clockskewMS = getContext().getSPConfig().getClockSkew();
+
+			getRunner().setResponseFactory(new MinimalResponseFactory() {
+				@Override
+				protected void customize(Response response, Assertion assertion) {
+					List<SubjectConfirmation> subConfs = assertion.getSubject().getSubjectConfirmations();
+					for (SubjectConfirmation subConf : subConfs) {
+						// set the validity period to 4 times the clock skew plus 1 second
+						subConf.getSubjectConfirmationData().setNotOnOrAfter(DateTime.now().plusMillis(4 * clockskewMS + 1000));
+					}
+				}
+			});
+			Boolean loginValidNOOA = getRunner().attemptLogin(browser, true);
 			
 			if (loginValidNOOA == null) {
 				resultMessage = "The login attempt could not be completed";
@@ -688,33 +629,22 @@ public class SAMLProf_WebSSO extends SPTestSuite {
 			 * Check if the target SP rejects a login attempt when the Recipient does not match the ACS URL on which it was delivered
 			 */
 
-			browser = SPTestRunner.getInstance().getNewBrowser();
-			response = null;
-			assertions = null;
-			assertion = null;
-			subConfs = null;
+			browser = getRunner().getNewBrowser();
 			
-			response = createMinimalWebSSOResponse(PLACEHOLDER_REQUESTID, PLACEHOLDER_ACSURL);
-			assertions = response.getAssertions();
-			assertion = assertions.get(0);
-			subConfs = assertion.getSubject().getSubjectConfirmations();
-			for (SubjectConfirmation subConf : subConfs) {
-				SubjectConfirmationData subConfData = subConf.getSubjectConfirmationData();
-				// set the NotOnOrAfter attribute to now so it will be invalid when it arrives at the target SP
-				subConfData.setNotOnOrAfter(DateTime.now());
-			}
-			addTargetSPAttributes(assertion);
-			SAMLUtil.sign(assertion, getX509Credentials(null));
-			// wait for the same amount of time as the clock skew on the target SP to make sure
-			// the Response can't be made valid due to that clock skew (and a second longer, just to make sure)
-			try {
-				Thread.sleep(clockskewMS+1000);
-			} catch (InterruptedException e) {
-				resultMessage = "The wait time intended to keep the clock skew from incorrectly causing the Response to be valid, was interrupted";
-				return false;
-			}
-			SPTestRunner.getInstance().setSamlResponse(SAMLUtil.toXML(response));
-			Boolean loginInvalidNOOA = SPTestRunner.getInstance().attemptLogin(browser, true);
+			// create the Response as if it was created the same amount of time as the clock skew on the target SP ago
+			// (and a second longer, just to make sure) so the Response can't be made valid due to that clock skew
+			getRunner().setResponseFactory(new MinimalResponseFactory(-(clockskewMS+1000)) {
+				@Override
+				protected void customize(Response response, Assertion assertion) {
+					List<SubjectConfirmation> subConfs = assertion.getSubject().getSubjectConfirmations();
+					for (SubjectConfirmation subConf : subConfs) {
+						SubjectConfirmationData subConfData = subConf.getSubjectConfirmationData();
+						// set the NotOnOrAfter attribute to the time the Response was created so it will be invalid when it arrives at the target SP
+						subConfData.setNotOnOrAfter(assertion.getIssueInstant());
+					}
+				}
+			});
+			Boolean loginInvalidNOOA = getRunner().attemptLogin(browser, true);
 			
 			if (loginInvalidNOOA == null) {
 				resultMessage = "The invalid login attempt could not be completed";
@@ -725,32 +655,21 @@ public class SAMLProf_WebSSO extends SPTestSuite {
 				return false;
 			}
 			
-			browser = SPTestRunner.getInstance().getNewBrowser();
-			response = null;
-			assertions = null;
-			assertion = null;
-			subConfs = null;
+			browser = getRunner().getNewBrowser();
 			
-			response = createMinimalWebSSOResponse(PLACEHOLDER_REQUESTID, PLACEHOLDER_ACSURL);
-			assertions = response.getAssertions();
-			assertion = assertions.get(0);
-			subConfs = assertion.getSubject().getSubjectConfirmations();
-			for (SubjectConfirmation subConf : subConfs) {
-				// set the validity period to 4 times the clock skew plus 1 second
-				subConf.getSubjectConfirmationData().setNotOnOrAfter(DateTime.now().plusMillis(4 * clockskewMS + 1000));
-			}
-			addTargetSPAttributes(assertion);
-			SAMLUtil.sign(assertion, getX509Credentials(null));
-			// wait for a long period of time before using the Response to make sure that long validity periods are 
+			// create the Response as if it was created a long period of time ago to make sure that long validity periods are 
 			// still seen as valid
-			try {
-				Thread.sleep(3 * clockskewMS);
-			} catch (InterruptedException e) {
-				resultMessage = "The wait time intended to keep the clock skew from incorrectly causing the Response to be valid, was interrupted";
-				return false;
-			}
-			SPTestRunner.getInstance().setSamlResponse(SAMLUtil.toXML(response));
-			Boolean loginLongNOOA = SPTestRunner.getInstance().attemptLogin(browser, true);
+			getRunner().setResponseFactory(new MinimalResponseFactory(-(3 * clockskewMS)) {
+				@Override
+				protected void customize(Response response, Assertion assertion) {
+					List<SubjectConfirmation> subConfs = assertion.getSubject().getSubjectConfirmations();
+					for (SubjectConfirmation subConf : subConfs) {
+						// set the validity period to 4 times the clock skew plus 1 second
+						subConf.getSubjectConfirmationData().setNotOnOrAfter(assertion.getIssueInstant().plusMillis(4 * clockskewMS + 1000));
+					}
+				}
+			});
+			Boolean loginLongNOOA = getRunner().attemptLogin(browser, true);
 
 			if (loginLongNOOA == null) {
 				resultMessage = "The long login attempt could not be completed";
@@ -805,23 +724,13 @@ public class SAMLProf_WebSSO extends SPTestSuite {
 		@Override
 		public boolean checkLogin() {
 			// get a browser to test in
-			WebClient browser = SPTestRunner.getInstance().getNewBrowser();
-			// define the variables that can be used to store the components of the Response messages
-			Response response;
-			List<Assertion> assertions;
-			Assertion assertion;
-			List<SubjectConfirmation> subConfs;
-			
+			WebClient browser = getRunner().getNewBrowser();
 			/**
 			 * Check if the target SP allows a login attempt if the InResponseTo attribute is valid
 			 */
 
-			response = createMinimalWebSSOResponse(PLACEHOLDER_REQUESTID, PLACEHOLDER_ACSURL);
-			assertion = response.getAssertions().get(0);
-			addTargetSPAttributes(assertion);
-			SAMLUtil.sign(assertion, getX509Credentials(null));
-			SPTestRunner.getInstance().setSamlResponse(SAMLUtil.toXML(response));
-			Boolean loginValidIRT = SPTestRunner.getInstance().attemptLogin(browser, true);
+			getRunner().setResponseFactory(new MinimalResponseFactory());
+			Boolean loginValidIRT = getRunner().attemptLogin(browser, true);
 
 			if (loginValidIRT == null) {
 				resultMessage = "The login attempt could not be completed";
@@ -837,45 +746,35 @@ public class SAMLProf_WebSSO extends SPTestSuite {
 			 * Check if the target SP rejects a login attempt when the InResponseTo attribute is invalid in SubjectConfirmationData
 			 */
 
-			browser = SPTestRunner.getInstance().getNewBrowser();
-			response = null;
-			assertions = null;
-			assertion = null;
-			subConfs = null;
+			browser = getRunner().getNewBrowser();
 			
-			response = createMinimalWebSSOResponse(PLACEHOLDER_REQUESTID, PLACEHOLDER_ACSURL);
-			assertions = response.getAssertions();
-			assertion = assertions.get(0);
-			subConfs = assertion.getSubject().getSubjectConfirmations();
-			for (SubjectConfirmation subConf : subConfs) {
-				SubjectConfirmationData subConfData = subConf.getSubjectConfirmationData();
-				// set IRT to valid NCName but a new one that won't match the correct one
-				subConfData.setInResponseTo("_"+UUID.randomUUID().toString()+"_"+UUID.randomUUID().toString());
-			}
-			addTargetSPAttributes(assertion);
-			SAMLUtil.sign(assertion, getX509Credentials(null));
-			SPTestRunner.getInstance().setSamlResponse(SAMLUtil.toXML(response));
-			Boolean loginInvalidIRTSubConfData = SPTestRunner.getInstance().attemptLogin(browser, true);
+			getRunner().setResponseFactory(new MinimalResponseFactory() {
+				@Override
+				protected void customize(Response response, Assertion assertion) {
+					List<SubjectConfirmation> subConfs = assertion.getSubject().getSubjectConfirmations();
+					for (SubjectConfirmation subConf : subConfs) {
+						SubjectConfirmationData subConfData = subConf.getSubjectConfirmationData();
+						// set IRT to valid NCName but a new one that won't match the correct one
+						subConfData.setInResponseTo("_"+UUID.randomUUID().toString()+"_"+UUID.randomUUID().toString());
+					}
+				}
+			});
+			Boolean loginInvalidIRTSubConfData = getRunner().attemptLogin(browser, true);
 			
 			/**
 			 * Check if the target SP rejects a login attempt when the InResponseTo attribute is invalid in Response
 			 */
 
-			browser = SPTestRunner.getInstance().getNewBrowser();
-			response = null;
-			assertions = null;
-			assertion = null;
-			subConfs = null;
+			browser = getRunner().getNewBrowser();
 			
-			response = createMinimalWebSSOResponse(PLACEHOLDER_REQUESTID, PLACEHOLDER_ACSURL);
-			assertions = response.getAssertions();
-			assertion = assertions.get(0);
-			addTargetSPAttributes(assertion);
-			// set IRT to valid NCName but a new one that won't match the correct one
-			response.setInResponseTo("_"+UUID.randomUUID().toString()+"_"+UUID.randomUUID().toString());
-			SAMLUtil.sign(assertion, getX509Credentials(null));
-			SPTestRunner.getInstance().setSamlResponse(SAMLUtil.toXML(response));
-			Boolean loginInvalidIRTResponse = SPTestRunner.getInstance().attemptLogin(browser, true);
+			getRunner().setResponseFactory(new MinimalResponseFactory() {
+				@Override
+				protected void customize(Response response, Assertion assertion) {
+					// set IRT to valid NCName but a new one that won't match the correct one
+					response.setInResponseTo("_"+UUID.randomUUID().toString()+"_"+UUID.randomUUID().toString());
+				}
+			});
+			Boolean loginInvalidIRTResponse = getRunner().attemptLogin(browser, true);
 
 			if (loginInvalidIRTSubConfData == null || loginInvalidIRTResponse == null) {
 				resultMessage = "The login attempt could not be completed";
@@ -936,7 +835,7 @@ public class SAMLProf_WebSSO extends SPTestSuite {
 		@Override
 		public boolean checkLogin() {
 			// get a browser to test in
-			WebClient browser = SPTestRunner.getInstance().getNewBrowser();
+			WebClient browser = getRunner().getNewBrowser();
 			// define the variables that can be used to store the components of the Response messages
 			Response response;
 			List<Assertion> assertions;
@@ -951,8 +850,8 @@ public class SAMLProf_WebSSO extends SPTestSuite {
 			assertion = assertions.get(0);
 			addTargetSPAttributes(assertion);
 			SAMLUtil.sign(assertion, getX509Credentials(null));
-			SPTestRunner.getInstance().setSamlResponse(SAMLUtil.toXML(response));
-			Boolean loginValidIRTIdP = SPTestRunner.getInstance().attemptLogin(browser, false);
+			getRunner().setSamlResponse(SAMLUtil.toXML(response));
+			Boolean loginValidIRTIdP = getRunner().attemptLogin(browser, false);
 
 			if (loginValidIRTIdP == null) {
 				resultMessage = "The IdP-initiated login attempt could not be completed";
@@ -967,12 +866,7 @@ public class SAMLProf_WebSSO extends SPTestSuite {
 			 * Try to log in with an unsolicited Response with an empty InResponseTo attribute present
 			 */
 
-			browser = SPTestRunner.getInstance().getNewBrowser();
-			response = null;
-			assertions = null;
-			assertion = null;
-			subConfs = null;
-			
+			browser = getRunner().getNewBrowser();
 			response = createMinimalWebSSOResponse(null, null);
 			assertions = response.getAssertions();
 			assertion = assertions.get(0);
@@ -983,8 +877,8 @@ public class SAMLProf_WebSSO extends SPTestSuite {
 			addTargetSPAttributes(assertion);
 			response.setInResponseTo("");
 			SAMLUtil.sign(assertion, getX509Credentials(null));
-			SPTestRunner.getInstance().setSamlResponse(SAMLUtil.toXML(response));
-			Boolean loginInvalidIRTIdP = SPTestRunner.getInstance().attemptLogin(browser, false);
+			getRunner().setSamlResponse(SAMLUtil.toXML(response));
+			Boolean loginInvalidIRTIdP = getRunner().attemptLogin(browser, false);
 
 			if (loginInvalidIRTIdP == null) {
 				logger.debug("The login attempt could not be completed");
@@ -1014,8 +908,16 @@ public class SAMLProf_WebSSO extends SPTestSuite {
 	 * 
 	 * @author RiaasM
 	 */
-	public class LoginSessionValidity implements LoginTestCase {
+	public class LoginSessionValidity implements TimedLoginTestCase {
 		private String resultMessage;
+		/**
+		 * The browser in which the login attempt was made
+		 */
+		private WebClient browser;
+		/**
+		 * The page on which the browser was logged in
+		 */
+		private HtmlPage curPage;
 	
 		@Override
 		public String getDescription() {
@@ -1033,34 +935,28 @@ public class SAMLProf_WebSSO extends SPTestSuite {
 		}
 
 		@Override
-		public boolean checkLogin() {
+		public long startLogin() {
 			// get a browser to test in
-			WebClient browser = SPTestRunner.getInstance().getNewBrowser();
-			// define the variables that can be used to store the components of the Response messages
-			Response response;
-			List<Assertion> assertions;
-			Assertion assertion;
-			
-			response = createMinimalWebSSOResponse(PLACEHOLDER_REQUESTID, PLACEHOLDER_ACSURL);
-			assertions = response.getAssertions();
-			assertion = assertions.get(0);
-			List<AuthnStatement> authnstatements = assertion.getAuthnStatements();
-			for (AuthnStatement authnstatement : authnstatements) {
-				// make the session valid for 5 seconds
-				authnstatement.setSessionNotOnOrAfter(DateTime.now().plusMillis(5000));
-			}
-			addTargetSPAttributes(assertion);
-			SAMLUtil.sign(assertion, getX509Credentials(null));
-			SPTestRunner.getInstance().setSamlResponse(SAMLUtil.toXML(response));
-			Boolean loginSessionValidity = SPTestRunner.getInstance().attemptLogin(browser, true);
+			browser = getRunner().getNewBrowser();
+			getRunner().setResponseFactory(new MinimalResponseFactory() {
+				@Override
+				protected void customize(Response response, Assertion assertion) {
+					List<AuthnStatement> authnstatements = assertion.getAuthnStatements();
+					for (AuthnStatement authnstatement : authnstatements) {
+						// make the session valid for 5 seconds
+						authnstatement.setSessionNotOnOrAfter(DateTime.now().plusMillis(5000));
+					}
+				}
+			});
+			Boolean loginSessionValidity = getRunner().attemptLogin(browser, true);
 	
 			if (loginSessionValidity == null){
 				resultMessage = "The login attempt could not be completed";
-				return false;
+				return FAILED;
 			}
 			else if (!loginSessionValidity) {
 				resultMessage = "The Service Provider's session's validity could not be verified because the login failed";
-				return false;
+				return FAILED;
 			}
 	
 			/**
@@ -1068,26 +964,39 @@ public class SAMLProf_WebSSO extends SPTestSuite {
 			 */
 			try {
 				// retrieve the current page from the browser
-				HtmlPage curPage = (HtmlPage) browser.getCurrentWindow().getEnclosedPage();
+				curPage = (HtmlPage) browser.getCurrentWindow().getEnclosedPage();
 				// refresh the page
 				curPage.refresh();
 				// check if you're still logged in and wait until the session is invalid
-				if (!SPTestRunner.getInstance().checkLoginContent(curPage) || !SPTestRunner.getInstance().checkLoginCookies(browser.getCookies(curPage.getUrl()))
-						|| !SPTestRunner.getInstance().checkLoginHTTPStatusCode(curPage) || !SPTestRunner.getInstance().checkLoginURL(curPage)) {
+				if (!getRunner().checkLoginContent(curPage) || !getRunner().checkLoginCookies(browser.getCookies(curPage.getUrl()))
+						|| !getRunner().checkLoginHTTPStatusCode(curPage) || !getRunner().checkLoginURL(curPage)) {
 					resultMessage = "The Service Provider loses its login status after a refresh while the session is still valid";
-					return false;
+					return FAILED;
 				}
-				// disable the mock IdP so the SP can't re-authenticate the session
-				SPTestRunner.getInstance().killMockServer();
-				
-				// wait till the session is no longer valid 
-				// (which is the amount of time that is acceptable as clockskew + the session validity period of 1 second + an additional second to make sure we are indeed outside of the validity period)
-				Thread.sleep(SPTestRunner.getInstance().getSPConfig().getClockSkew() + 5000 + 1000);
+			} catch (FailingHttpStatusCodeException e) {
+				resultMessage = "Could not retrieve browser page for the LoginTestCase";
+				return FAILED;
+			} catch (IOException e) {
+				resultMessage = "An I/O exception occurred while trying to access the start page";
+				return FAILED;
+			}
+			// disable the mock IdP for this test case so the SP can't re-authenticate the session
+			// (the mock server itself keeps running for any other test cases)
+			getContext().getExchange().setMockIdPAvailable(false);
+			
+			// wait till the session is no longer valid 
+			// (which is the amount of time that is acceptable as clockskew + the session validity period of 5 seconds + an additional second to make sure we are indeed outside of the validity period)
+			return getContext().getSPConfig().getClockSkew() + 5000 + 1000;
+		}
+
+		@Override
+		public boolean finishLogin() {
+			try {
 				// refresh the page and check if you're still logged in
 				curPage.refresh();
 				// check if you're still logged in
-				if (SPTestRunner.getInstance().checkLoginContent(curPage) && SPTestRunner.getInstance().checkLoginCookies(browser.getCookies(curPage.getUrl()))
-						&& SPTestRunner.getInstance().checkLoginHTTPStatusCode(curPage) && SPTestRunner.getInstance().checkLoginURL(curPage)) {
+				if (getRunner().checkLoginContent(curPage) && getRunner().checkLoginCookies(browser.getCookies(curPage.getUrl()))
+						&& getRunner().checkLoginHTTPStatusCode(curPage) && getRunner().checkLoginURL(curPage)) {
 					resultMessage = "The Service Provider does not correctly discard the security context when a SessionNotOnOrAfter is provided ";
 					return false;
 				} else {
@@ -1103,9 +1012,6 @@ public class SAMLProf_WebSSO extends SPTestSuite {
 			} catch (IOException e) {
 				resultMessage = "An I/O exception occurred while trying to access the start page";
 				return false;
-			} catch (InterruptedException e) {
-				resultMessage = "The wait time intended to make the session invalid, was interrupted";
-				return false;
 			}
 		}
 	}
@@ -1142,7 +1048,7 @@ public class SAMLProf_WebSSO extends SPTestSuite {
 		@Override
 		public boolean checkLogin() {
 			// get a browser to test in
-			WebClient browser = SPTestRunner.getInstance().getNewBrowser();
+			WebClient browser = getRunner().getNewBrowser();
 			// define the variables that can be used to store the components of the Response messages
 			Response response;
 			List<Assertion> assertions;
@@ -1154,8 +1060,8 @@ public class SAMLProf_WebSSO extends SPTestSuite {
 			addTargetSPAttributes(assertion);
 			SAMLUtil.sign(assertion, getX509Credentials(null));
 			String responseBearer1 = SAMLUtil.toXML(response);
-			SPTestRunner.getInstance().setSamlResponse(responseBearer1);
-			Boolean loginBearer1 = SPTestRunner.getInstance().attemptLogin(browser, true);
+			getRunner().setSamlResponse(responseBearer1);
+			Boolean loginBearer1 = getRunner().attemptLogin(browser, true);
 			
 			if (loginBearer1 == null){
 				resultMessage = "The login attempt could not be completed";
@@ -1166,22 +1072,18 @@ public class SAMLProf_WebSSO extends SPTestSuite {
 				return false;
 			}
 			// create a second browser with the same options as the current browser
-			WebClient secondBrowser = SPTestRunner.getInstance().getNewBrowser();
+			WebClient secondBrowser = getRunner().getNewBrowser();
 			
 			// start another login attempt in the second browser
-			response = null;
-			assertions = null;
-			assertion = null;
-			
-			SPTestRunner.getInstance().attemptLogin(secondBrowser, true);
+			getRunner().attemptLogin(secondBrowser, true);
 			response = createMinimalWebSSOResponse(PLACEHOLDER_REQUESTID, PLACEHOLDER_ACSURL);
 			assertions = response.getAssertions();
 			assertion = assertions.get(0);
 			addTargetSPAttributes(assertion);
 			SAMLUtil.sign(assertion, getX509Credentials(null));
 			String responseBearer2 = SAMLUtil.toXML(response);
-			SPTestRunner.getInstance().setSamlResponse(responseBearer2);
-			Boolean loginBearer2 = SPTestRunner.getInstance().attemptLogin(secondBrowser, true);
+			getRunner().setSamlResponse(responseBearer2);
+			Boolean loginBearer2 = getRunner().attemptLogin(secondBrowser, true);
 
 			if (loginBearer2 == null){
 				resultMessage = "The login attempt could not be completed";
@@ -1196,15 +1098,15 @@ public class SAMLProf_WebSSO extends SPTestSuite {
 			 * Check that logging in with the same responses is not allowed
 			 */
 			
-			browser = SPTestRunner.getInstance().getNewBrowser();
-			secondBrowser = SPTestRunner.getInstance().getNewBrowser();
+			browser = getRunner().getNewBrowser();
+			secondBrowser = getRunner().getNewBrowser();
 			
-			SPTestRunner.getInstance().setSamlResponse(responseBearer1);
-			SPTestRunner.getInstance().attemptLogin(browser, true);
-			Boolean loginBearer1Replay = SPTestRunner.getInstance().attemptLogin(browser, true);
-			SPTestRunner.getInstance().setSamlResponse(responseBearer2);
-			SPTestRunner.getInstance().attemptLogin(secondBrowser, true);
-			Boolean loginBearer2Replay = SPTestRunner.getInstance().attemptLogin(secondBrowser, true);
+			getRunner().setSamlResponse(responseBearer1);
+			getRunner().attemptLogin(browser, true);
+			Boolean loginBearer1Replay = getRunner().attemptLogin(browser, true);
+			getRunner().setSamlResponse(responseBearer2);
+			getRunner().attemptLogin(secondBrowser, true);
+			Boolean loginBearer2Replay = getRunner().attemptLogin(secondBrowser, true);
 			
 			if(loginBearer1Replay || loginBearer2Replay){
 				resultMessage = "The Service Provider does not ensure that bearer assertions are not replayed";
@@ -1217,6 +1119,144 @@ public class SAMLProf_WebSSO extends SPTestSuite {
 		}
 	}
 
+	/**
+	 * Tests the following part of the SAML 2.0 Web Browser SSO Profile [4.1.4.5 POST-Specific Processing Rules]:
+	 * 
+	 * The service provider MUST ensure that bearer assertions are not replayed, by maintaining the set of used ID values for the length of
+	 * time for which the assertion would be considered valid based on the NotOnOrAfter attribute in the <SubjectConfirmationData>.
+	 * 
+	 * Tested by sending the same signed, unsolicited (IdP-initiated) Response from several browsers at the same time. Since the
+	 * Response does not answer an AuthnRequest, the Service Provider can only reject the copies by detecting the replay. The mock IdP
+	 * holds the Response for each browser until all browsers have requested it, so they all send it to the ACS at the same instant.
+	 * At most one of these login attempts should succeed. This detects replay caches that are only updated after the security context
+	 * has been established, or that are not shared between the nodes of a load-balanced Service Provider.
+	 * 
+	 * @author RiaasM
+	 */
+	public class LoginBearerReplayRace implements LoginTestCase {
+		/**
+		 * The number of browsers that send the same Response at the same time
+		 */
+		private static final int BROWSERS = 5;
+		/**
+		 * The time (in milliseconds) the mock IdP waits for all browsers to request the Response
+		 */
+		private static final long BARRIER_TIMEOUT = 30000;
+		private String resultMessage;
+
+		@Override
+		public String getDescription() {
+			return "Test if the Service Provider ensures that bearer assertions are not replayed, even when they are replayed at the same time";
+		}
+
+		@Override
+		public String getResultMessage() {
+			return resultMessage;
+		}
+
+		@Override
+		public boolean isMandatory() {
+			return true;
+		}
+
+		@Override
+		public boolean checkLogin() {
+			// make sure a valid unsolicited login attempt will succeed before continuing the test case
+			WebClient browser = getRunner().getNewBrowser();
+			getRunner().setResponseFactory(new MinimalResponseFactory());
+			Boolean loginValid = getRunner().attemptLogin(browser, false);
+			if (loginValid == null){
+				resultMessage = "The login attempt could not be completed";
+				return false;
+			}
+			else if (!loginValid) {
+				resultMessage = "The test could not be run because we could not login in with a valid unsolicited (IdP-initiated) Response";
+				return false;
+			}
+
+			/**
+			 * Send the same Response from all browsers at the same time
+			 */
+			final CyclicBarrier barrier = new CyclicBarrier(BROWSERS);
+			final AtomicReference<String> sharedResponse = new AtomicReference<String>();
+			final MinimalResponseFactory minimalResponse = new MinimalResponseFactory();
+			getRunner().setResponseFactory(new ResponseFactory() {
+				@Override
+				public String createResponse(String requestID, String acsURL, String acsBinding) {
+					// the first browser that requests the unsolicited Response determines the Response for all browsers
+					if (sharedResponse.get() == null) {
+						sharedResponse.compareAndSet(null, minimalResponse.createResponse(requestID, acsURL, acsBinding));
+					}
+					try {
+						barrier.await(BARRIER_TIMEOUT, TimeUnit.MILLISECONDS);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					} catch (BrokenBarrierException | TimeoutException e) {
+						logger.debug("Not all browsers requested the Response in time, sending it anyway");
+					}
+					return sharedResponse.get();
+				}
+			});
+			// the browsers are created on this thread, so the mock IdP finds the Response factory for all of them
+			ArrayList<WebClient> browsers = new ArrayList<WebClient>();
+			for (int i = 0; i < BROWSERS; i++) {
+				browsers.add(getRunner().getNewBrowser());
+			}
+			ExecutorService senders = Executors.newFixedThreadPool(BROWSERS);
+			ArrayList<Future<Boolean>> logins = new ArrayList<Future<Boolean>>();
+			try {
+				for (final WebClient raceBrowser : browsers) {
+					logins.add(senders.submit(new Callable<Boolean>() {
+						@Override
+						public Boolean call() {
+							return getRunner().attemptLogin(raceBrowser, false);
+						}
+					}));
+				}
+				int successful = 0;
+				int incomplete = 0;
+				for (Future<Boolean> login : logins) {
+					Boolean loginReplay;
+					try {
+						loginReplay = login.get();
+					} catch (ExecutionException e) {
+						logger.debug("A concurrent login attempt failed", e.getCause());
+						loginReplay = null;
+					}
+					if (loginReplay == null) {
+						incomplete++;
+					}
+					else if (loginReplay) {
+						successful++;
+					}
+				}
+				logger.debug(successful + " of " + BROWSERS + " concurrent login attempts with the same Response succeeded, " + incomplete + " could not be completed");
+				
+				if (successful > 1) {
+					resultMessage = "The Service Provider allowed " + successful + " of " + BROWSERS + " concurrent login attempts with the same bearer assertion";
+					return false;
+				}
+				else if (successful == 0) {
+					resultMessage = "The test could not be run because none of the concurrent login attempts with a valid Response succeeded";
+					return false;
+				}
+				else {
+					resultMessage = "The Service Provider ensures that bearer assertions are not replayed, even when they are replayed at the same time";
+					return true;
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				resultMessage = "The test was interrupted while waiting for the concurrent login attempts";
+				return false;
+			} finally {
+				senders.shutdownNow();
+				for (WebClient raceBrowser : browsers) {
+					getRunner().releaseBrowser(raceBrowser);
+				}
+			}
+		}
+	}
+
 	/**
 	 * Tests the following part of the SAML 2.0 Web Browser SSO Profile:
 	 * 
@@ -1260,47 +1300,44 @@ public class SAMLProf_WebSSO extends SPTestSuite {
 		@Override
 		public boolean checkLogin() {
 			// get a browser to test in
-			WebClient browser = SPTestRunner.getInstance().getNewBrowser();
-			// define the variables that can be used to store the components of the Response messages
-			Response response;
-			List<Assertion> assertions;
-			Assertion assertion;
-			List<SubjectConfirmation> subConfs;
+			WebClient browser = getRunner().getNewBrowser();
 			
 			/**
 			 * Try to log in with a valid Assertion
 			 */
-			response = createMinimalWebSSOResponse(PLACEHOLDER_REQUESTID, PLACEHOLDER_ACSURL);
-			assertions = response.getAssertions();
-			assertion = assertions.get(0);
-			// include an address attribute so we can ensure that a valid address attribute also allows correct login
-			subConfs = assertion.getSubject().getSubjectConfirmations();
-			for (SubjectConfirmation subConf : subConfs) {
-				SubjectConfirmationData subConfData = (SubjectConfirmationData) subConf.getSubjectConfirmationData();
-				// get the IP address which is visible when connecting to the mock server
-				String address = null;
-				try {
-					Socket mockIdPConnection = new Socket(getMockServerURL().getHost(), getMockServerURL().getPort());
-					address = mockIdPConnection.getLocalAddress().getHostAddress();
-					mockIdPConnection.close();
-				} catch (UnknownHostException e) {
-					logger.error("Can not create socket connected to mock IdP server: "+ getMockServerURL().toString(), e);
-				} catch (IOException e) {
-					logger.error("IOException occurred on socket connected to mock IdP server: "+ getMockServerURL().toString(), e);
-				}
-				if (address == null){
-					logger.error("Could not retrieve the IP address that is visible when connecting to the mock IdP server");
-				}
-				else{
-					logger.debug("The Address attribute on SubjectConfirmationData for the valid Response is "+address);
-					// set the attribute to a valid address, this should be the address from where the assertion is sent (i.e. the IdP's address)
-					subConfData.setAddress(address);
-				}
+			// get the IP address which is visible when connecting to the mock server
+			String visibleAddress = null;
+			try {
+				Socket mockIdPConnection = new Socket(getMockServerURL().getHost(), getMockServerURL().getPort());
+				visibleAddress = mockIdPConnection.getLocalAddress().getHostAddress();
+				mockIdPConnection.close();
+			} catch (UnknownHostException e) {
+				logger.error("Can not create socket connected to mock IdP server: "+ getMockServerURL().toString(), e);
+			} catch (IOException e) {
+				logger.error("IOException occurred on socket connected to mock IdP server: "+ getMockServerURL().toString(), e);
 			}
-			addTargetSPAttributes(assertion);
-			SAMLUtil.sign(assertion, getX509Credentials(null));
-			SPTestRunner.getInstance().setSamlResponse(SAMLUtil.toXML(response));
-			Boolean loginValidAssertion = SPTestRunner.getInstance().attemptLogin(browser, true);
+			if (visibleAddress == null){
+				logger.error("Could not retrieve the IP address that is visible when connecting to the mock IdP server");
+			}
+			else{
+				logger.debug("The Address attribute on SubjectConfirmationData for the valid Response is "+visibleAddress);
+			}
+			final String address = visibleAddress;
+			getRunner().setResponseFactory(new MinimalResponseFactory() {
+				@Override
+				protected void customize(Response response, Assertion assertion) {
+					if (address == null){
+						return;
+					}
+					// include an address attribute so we can ensure that a valid address attribute also allows correct login
+					for (SubjectConfirmation subConf : assertion.getSubject().getSubjectConfirmations()) {
+						SubjectConfirmationData subConfData = (SubjectConfirmationData) subConf.getSubjectConfirmationData();
+						// set the attribute to a valid address, this should be the address from where the assertion is sent (i.e. the IdP's address)
+						subConfData.setAddress(address);
+					}
+				}
+			});
+			Boolean loginValidAssertion = getRunner().attemptLogin(browser, true);
 
 			if (loginValidAssertion == null) {
 				resultMessage = "The login attempt with a valid Assertion could not be completed";
@@ -1315,26 +1352,20 @@ public class SAMLProf_WebSSO extends SPTestSuite {
 			 * Try to log in with an Assertion that has a subjectconfirmationdata element with an invalid Address attribute
 			 */
 
-			browser = SPTestRunner.getInstance().getNewBrowser();
-			response = null;
-			assertions = null;
-			assertion = null;
-			subConfs = null;
-			
-			response = createMinimalWebSSOResponse(PLACEHOLDER_REQUESTID, PLACEHOLDER_ACSURL);
-			assertions = response.getAssertions();
-			assertion = assertions.get(0);
-			subConfs = assertion.getSubject().getSubjectConfirmations();
-			for (SubjectConfirmation subConf : subConfs) {
-				SubjectConfirmationData subConfData = (SubjectConfirmationData) subConf.getSubjectConfirmationData();
-				// set the attribute to a non-existing IP address (but still in a valid IP address format)
-				// this should normally be the IP address of the client that is logging in (i.e. the browser's IP address)
-				subConfData.setAddress("255.255.255.255");
-			}
-			addTargetSPAttributes(assertion);
-			SAMLUtil.sign(assertion, getX509Credentials(null));
-			SPTestRunner.getInstance().setSamlResponse(SAMLUtil.toXML(response));
-			Boolean loginInvalidAddress = SPTestRunner.getInstance().attemptLogin(browser, true);
+			browser = getRunner().getNewBrowser();
+			getRunner().setResponseFactory(new MinimalResponseFactory() {
+				@Override
+				protected void customize(Response response, Assertion assertion) {
+					List<SubjectConfirmation> subConfs = assertion.getSubject().getSubjectConfirmations();
+					for (SubjectConfirmation subConf : subConfs) {
+						SubjectConfirmationData subConfData = (SubjectConfirmationData) subConf.getSubjectConfirmationData();
+						// set the attribute to a non-existing IP address (but still in a valid IP address format)
+						// this should normally be the IP address of the client that is logging in (i.e. the browser's IP address)
+						subConfData.setAddress("255.255.255.255");
+					}
+				}
+			});
+			Boolean loginInvalidAddress = getRunner().attemptLogin(browser, true);
 
 			if (loginInvalidAddress == null) {
 				logger.debug("The login attempt could not be completed");
@@ -1349,21 +1380,15 @@ public class SAMLProf_WebSSO extends SPTestSuite {
 			 * Try to log in with an Assertion that has an invalid NotBefore date on the Conditions element
 			 */
 
-			browser = SPTestRunner.getInstance().getNewBrowser();
-			response = null;
-			assertions = null;
-			assertion = null;
-			subConfs = null;
-			
-			response = createMinimalWebSSOResponse(PLACEHOLDER_REQUESTID, PLACEHOLDER_ACSURL);
-			assertions = response.getAssertions();
-			assertion = assertions.get(0);
-			// create Conditions element with invalid NotBefore attribute
-			assertion.getConditions().setNotBefore(DateTime.now().plusHours(1));
-			addTargetSPAttributes(assertion);
-			SAMLUtil.sign(assertion, getX509Credentials(null));
-			SPTestRunner.getInstance().setSamlResponse(SAMLUtil.toXML(response));
-			Boolean loginInvalidNotBefore = SPTestRunner.getInstance().attemptLogin(browser, true);
+			browser = getRunner().getNewBrowser();
+			getRunner().setResponseFactory(new MinimalResponseFactory() {
+				@Override
+				protected void customize(Response response, Assertion assertion) {
+					// create Conditions element with invalid NotBefore attribute
+					assertion.getConditions().setNotBefore(DateTime.now().plusHours(1));
+				}
+			});
+			Boolean loginInvalidNotBefore = getRunner().attemptLogin(browser, true);
 
 			if (loginInvalidNotBefore == null) {
 				logger.debug("The login attempt could not be completed");
@@ -1378,23 +1403,15 @@ public class SAMLProf_WebSSO extends SPTestSuite {
 			 * Try to log in with an Assertion that has an invalid NotOnOrAfter date on the Conditions element
 			 */
 
-			browser = SPTestRunner.getInstance().getNewBrowser();
-			response = null;
-			assertions = null;
-			assertion = null;
-			subConfs = null;
-			
-			response = createMinimalWebSSOResponse(PLACEHOLDER_REQUESTID, PLACEHOLDER_ACSURL);
-			assertions = response.getAssertions();
-			assertion = assertions.get(0);
-			subConfs = assertion.getSubject().getSubjectConfirmations();
-			// create Conditions element with invalid NotOnOrAfter attribute
-			assertion.getConditions().setNotOnOrAfter(DateTime.now().minusHours(1));
-			
-			addTargetSPAttributes(assertion);
-			SAMLUtil.sign(assertion, getX509Credentials(null));
-			SPTestRunner.getInstance().setSamlResponse(SAMLUtil.toXML(response));
-			Boolean loginInvalidNotOnOrAfter = SPTestRunner.getInstance().attemptLogin(browser, true);
+			browser = getRunner().getNewBrowser();
+			getRunner().setResponseFactory(new MinimalResponseFactory() {
+				@Override
+				protected void customize(Response response, Assertion assertion) {
+					// create Conditions element with invalid NotOnOrAfter attribute
+					assertion.getConditions().setNotOnOrAfter(DateTime.now().minusHours(1));
+				}
+			});
+			Boolean loginInvalidNotOnOrAfter = getRunner().attemptLogin(browser, true);
 
 			if (loginInvalidNotOnOrAfter == null) {
 				logger.debug("The login attempt could not be completed");
@@ -1409,22 +1426,16 @@ public class SAMLProf_WebSSO extends SPTestSuite {
 			 * Try to log in with an Assertion that has an invalid AudienceRestriction element
 			 */
 
-			browser = SPTestRunner.getInstance().getNewBrowser();
-			response = null;
-			assertions = null;
-			assertion = null;
-			subConfs = null;
-			
-			response = createMinimalWebSSOResponse(PLACEHOLDER_REQUESTID, PLACEHOLDER_ACSURL);
-			assertions = response.getAssertions();
-			assertion = assertions.get(0);
-			// set the invalid audience value (but make sure it is still a valid URI)
-			// (note that the minimal response created by SAMLUtil has only 1 audiencerestriction with only 1 audience)
-			assertion.getConditions().getAudienceRestrictions().get(0).getAudiences().get(0).setAudienceURI("http://www.topdesk.com/");
-			addTargetSPAttributes(assertion);
-			SAMLUtil.sign(assertion, getX509Credentials(null));
-			SPTestRunner.getInstance().setSamlResponse(SAMLUtil.toXML(response));
-			Boolean loginInvalidAudienceRestriction = SPTestRunner.getInstance().attemptLogin(browser, true);
+			browser = getRunner().getNewBrowser();
+			getRunner().setResponseFactory(new MinimalResponseFactory() {
+				@Override
+				protected void customize(Response response, Assertion assertion) {
+					// set the invalid audience value (but make sure it is still a valid URI)
+					// (note that the minimal response created by SAMLUtil has only 1 audiencerestriction with only 1 audience)
+					assertion.getConditions().getAudienceRestrictions().get(0).getAudiences().get(0).setAudienceURI("http://www.topdesk.com/");
+				}
+			});
+			Boolean loginInvalidAudienceRestriction = getRunner().attemptLogin(browser, true);
 
 			if (loginInvalidAudienceRestriction == null) {
 				logger.debug("The login attempt could not be completed");
@@ -1440,12 +1451,7 @@ public class SAMLProf_WebSSO extends SPTestSuite {
 			 * (this may be a bit overkill for the purpose of testing the validity of assertions)
 			 */
 
-			/*browser = SPTestRunner.getInstance().getNewBrowser();
-			response = null;
-			assertions = null;
-			assertion = null;
-			subConfs = null;
-			
+			/*browser = getRunner().getNewBrowser();
 			response = createMinimalWebSSOResponse(PLACEHOLDER_REQUESTID, PLACEHOLDER_ACSURL);
 			assertions = response.getAssertions();
 			assertion = assertions.get(0);
@@ -1470,8 +1476,8 @@ public class SAMLProf_WebSSO extends SPTestSuite {
 			// add the assertion to the response
 			response.getAssertions().add(validAssertion);
 			
-			SPTestRunner.getInstance().setSamlResponse(SAMLUtil.toXML(response));
-			Boolean loginInvalidAndValidAssertions = SPTestRunner.getInstance().attemptLogin(browser, true);
+			getRunner().setSamlResponse(SAMLUtil.toXML(response));
+			Boolean loginInvalidAndValidAssertions = getRunner().attemptLogin(browser, true);
 
 			if (loginInvalidAndValidAssertions == null) {
 				logger.debug("The login attempt could not be completed");